@@ -0,0 +1,74 @@
+package com.example.javaniodemo.benchmark;
+
+import com.example.javaniodemo.myfuture.MyCompletableFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import kotlinx.coroutines.Deferred;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 构造调用链的开销，结果单位是纳秒/次
+ * <p>
+ * 在还没完成的源头上接{@link #depth}级加一的操作符，只构造不完成；
+ * 加上-prof gc，gc.alloc.rate.norm两个depth之间的差除以9就是每个操作符的分配字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmark {
+
+    static final Function<Integer, Integer> PLUS_ONE = i -> i + 1;
+
+    @Param({"1", "10"})
+    int depth;
+
+    @Benchmark
+    public CompletableFuture<Integer> completableFuture() {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        for (int i = 0; i < depth; i++) {
+            future = future.thenApply(PLUS_ONE);
+        }
+        return future;
+    }
+
+    @Benchmark
+    public MyCompletableFuture<Integer> myCompletableFuture() {
+        MyCompletableFuture<Integer> future = MyCompletableFuture.newToComplete();
+        for (int i = 0; i < depth; i++) {
+            future = future.thenApply(PLUS_ONE);
+        }
+        return future;
+    }
+
+    @Benchmark
+    public Mono<Integer> mono() {
+        Mono<Integer> mono = Sinks.<Integer>one().asMono();
+        for (int i = 0; i < depth; i++) {
+            mono = mono.map(PLUS_ONE);
+        }
+        return mono;
+    }
+
+    @Benchmark
+    public Future<Integer> vertxFuture() {
+        Future<Integer> future = Promise.<Integer>promise().future();
+        for (int i = 0; i < depth; i++) {
+            future = future.map(PLUS_ONE);
+        }
+        return future;
+    }
+
+    @Benchmark
+    public Deferred<Integer> coroutine() {
+        return Coroutines.chain(Coroutines.newSource(), depth);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.javaniodemo.benchmark;
+
+import com.example.javaniodemo.myfuture.MyCompletableFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import kotlinx.coroutines.CompletableDeferred;
+import kotlinx.coroutines.Deferred;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.javaniodemo.benchmark.ChainBenchmark.PLUS_ONE;
+
+/**
+ * 同一个线程上构造{@link #depth}级的调用链、完成源头、拿到结果，结果单位是纳秒/次
+ * <p>
+ * 和{@link ChainBenchmark}相减就是完成之后把结果沿着调用链传下去的开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionBenchmark {
+
+    @Param({"1", "10"})
+    int depth;
+
+    @Benchmark
+    public Integer completableFuture() {
+        final CompletableFuture<Integer> source = new CompletableFuture<>();
+        CompletableFuture<Integer> future = source;
+        for (int i = 0; i < depth; i++) {
+            future = future.thenApply(PLUS_ONE);
+        }
+        source.complete(1);
+        return future.join();
+    }
+
+    @Benchmark
+    public Integer myCompletableFuture() {
+        final MyCompletableFuture<Integer> source = MyCompletableFuture.newToComplete();
+        MyCompletableFuture<Integer> future = source;
+        for (int i = 0; i < depth; i++) {
+            future = future.thenApply(PLUS_ONE);
+        }
+        // 冷调用链，先触发；thenApply是同步节点，complete的时候在当前线程直接算完
+        future.fire();
+        source.complete(1);
+        return future.block();
+    }
+
+    @Benchmark
+    public void mono(Blackhole blackhole) {
+        final Sinks.One<Integer> source = Sinks.one();
+        Mono<Integer> mono = source.asMono();
+        for (int i = 0; i < depth; i++) {
+            mono = mono.map(PLUS_ONE);
+        }
+        mono.subscribe(blackhole::consume);
+        source.tryEmitValue(1);
+    }
+
+    @Benchmark
+    public Integer vertxFuture() {
+        final Promise<Integer> source = Promise.promise();
+        Future<Integer> future = source.future();
+        for (int i = 0; i < depth; i++) {
+            future = future.map(PLUS_ONE);
+        }
+        source.complete(1);
+        return future.result();
+    }
+
+    @Benchmark
+    public Integer coroutine() {
+        final CompletableDeferred<Integer> source = Coroutines.newSource();
+        final Deferred<Integer> deferred = Coroutines.chain(source, depth);
+        source.complete(1);
+        return deferred.getCompleted();
+    }
+}
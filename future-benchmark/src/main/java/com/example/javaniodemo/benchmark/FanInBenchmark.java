@@ -0,0 +1,93 @@
+package com.example.javaniodemo.benchmark;
+
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import kotlinx.coroutines.CompletableDeferred;
+import kotlinx.coroutines.Deferred;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 扇出、扇入：{@link #children}个还没完成的源头汇总成一个，再逐个完成，结果单位是微秒/次
+ * <p>
+ * 都在benchmark线程上同步拿到结果；MyCompletableFuture的allOf在运行时线程上订阅子future，
+ * 同一个线程上拿不到结果，跨线程的扇入见{@link HandoffBenchmark#myCompletableFutureAllOf}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FanInBenchmark {
+
+    @Param({"10", "1000"})
+    int children;
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Void completableFuture() {
+        final CompletableFuture<?>[] sources = new CompletableFuture[children];
+        for (int i = 0; i < children; i++) {
+            sources[i] = new CompletableFuture<Integer>();
+        }
+        final CompletableFuture<Void> all = CompletableFuture.allOf(sources);
+        for (int i = 0; i < children; i++) {
+            ((CompletableFuture<Integer>) sources[i]).complete(i);
+        }
+        return all.join();
+    }
+
+    @Benchmark
+    public void mono(Blackhole blackhole) {
+        final List<Sinks.One<Integer>> sources = new ArrayList<>(children);
+        final List<Mono<Integer>> monos = new ArrayList<>(children);
+        for (int i = 0; i < children; i++) {
+            final Sinks.One<Integer> source = Sinks.one();
+            sources.add(source);
+            monos.add(source.asMono());
+        }
+        Mono.zip(monos, values -> values.length).subscribe(blackhole::consume);
+        for (int i = 0; i < children; i++) {
+            sources.get(i).tryEmitValue(i);
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public CompositeFuture vertxFuture() {
+        final List<Promise<Integer>> sources = new ArrayList<>(children);
+        final List<Future> futures = new ArrayList<>(children);
+        for (int i = 0; i < children; i++) {
+            final Promise<Integer> source = Promise.promise();
+            sources.add(source);
+            futures.add(source.future());
+        }
+        final CompositeFuture all = CompositeFuture.all(futures);
+        for (int i = 0; i < children; i++) {
+            sources.get(i).complete(i);
+        }
+        return all.result();
+    }
+
+    @Benchmark
+    public List<Integer> coroutine() {
+        final List<CompletableDeferred<Integer>> sources = new ArrayList<>(children);
+        for (int i = 0; i < children; i++) {
+            sources.add(Coroutines.newSource());
+        }
+        final Deferred<List<Integer>> all = Coroutines.allOf(new ArrayList<>(sources));
+        for (int i = 0; i < children; i++) {
+            sources.get(i).complete(i);
+        }
+        return all.getCompleted();
+    }
+}
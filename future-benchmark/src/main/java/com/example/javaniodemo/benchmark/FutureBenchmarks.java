@@ -0,0 +1,31 @@
+package com.example.javaniodemo.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 一次跑完这个模块的所有benchmark，带gc profiler，结果写成json
+ * <p>
+ * 结果里面每个benchmark的primaryMetric是耗时，secondaryMetrics的gc.alloc.rate.norm是每次的分配字节数，
+ * 方法名就是实现名，同一个类里面横向比较；也可以用打包出来的benchmarks.jar，见README
+ *
+ * @see ChainBenchmark
+ * @see CompletionBenchmark
+ * @see FanInBenchmark
+ * @see HandoffBenchmark
+ */
+public class FutureBenchmarks {
+
+    public static void main(String[] args) throws Exception {
+        final String result = args.length > 0 ? args[0] : "target/jmh-result.json";
+        final Options options = new OptionsBuilder()
+                .include(FutureBenchmarks.class.getPackage().getName() + "\\.")
+                .addProfiler("gc")
+                .resultFormat(ResultFormatType.JSON)
+                .result(result)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.javaniodemo.benchmark;
+
+import com.example.javaniodemo.myfuture.MyCompletableFuture;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import kotlin.Unit;
+import kotlinx.coroutines.CompletableDeferred;
+import kotlinx.coroutines.Deferred;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.javaniodemo.benchmark.ChainBenchmark.PLUS_ONE;
+
+/**
+ * 跨线程交接：另一个线程完成源头，回调经过一个操作符之后通知回benchmark线程，结果单位是微秒/次
+ * <p>
+ * 相当于io线程拿到响应、业务线程等结果；每种实现的回调都在完成的线程上直接执行，
+ * 所以差别主要在完成时通知订阅者的开销，外加一次线程池提交和一次唤醒
+ * <p>
+ * xxxAllOf是跨线程的扇入：另一个线程逐个完成{@link #FAN_IN}个源头，汇总之后通知回来；
+ * MyCompletableFuture的allOf在运行时线程上订阅子future，比其他实现多一次提交到运行时线程
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandoffBenchmark {
+
+    static final int FAN_IN = 10;
+
+    ExecutorService completer;
+
+    @Setup
+    public void setUp() {
+        completer = Executors.newSingleThreadExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        completer.shutdownNow();
+    }
+
+    @Benchmark
+    public void completableFuture() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final CompletableFuture<Integer> source = new CompletableFuture<>();
+        source.thenApply(PLUS_ONE).thenAccept(value -> done.countDown());
+        completer.execute(() -> source.complete(1));
+        done.await();
+    }
+
+    @Benchmark
+    public void myCompletableFuture() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final MyCompletableFuture<Integer> source = MyCompletableFuture.newToComplete();
+        source.thenApply(PLUS_ONE).thenAccept(value -> done.countDown()).fire();
+        completer.execute(() -> source.complete(1));
+        done.await();
+    }
+
+    @Benchmark
+    public void mono() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Sinks.One<Integer> source = Sinks.one();
+        source.asMono().map(PLUS_ONE).subscribe(value -> done.countDown());
+        completer.execute(() -> source.tryEmitValue(1));
+        done.await();
+    }
+
+    @Benchmark
+    public void vertxFuture() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Promise<Integer> source = Promise.promise();
+        source.future().map(PLUS_ONE).onSuccess(value -> done.countDown());
+        completer.execute(() -> source.complete(1));
+        done.await();
+    }
+
+    @Benchmark
+    public void coroutine() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final CompletableDeferred<Integer> source = Coroutines.newSource();
+        Coroutines.onComplete(source, value -> done.countDown());
+        completer.execute(() -> source.complete(1));
+        done.await();
+    }
+
+    @Benchmark
+    public void completableFutureAllOf() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<CompletableFuture<Integer>> sources = new ArrayList<>(FAN_IN);
+        for (int i = 0; i < FAN_IN; i++) {
+            sources.add(new CompletableFuture<>());
+        }
+        CompletableFuture.allOf(sources.toArray(new CompletableFuture[0])).thenRun(done::countDown);
+        completer.execute(() -> {
+            for (int i = 0; i < FAN_IN; i++) {
+                sources.get(i).complete(i);
+            }
+        });
+        done.await();
+    }
+
+    @Benchmark
+    public void myCompletableFutureAllOf() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<MyCompletableFuture<Integer>> sources = new ArrayList<>(FAN_IN);
+        for (int i = 0; i < FAN_IN; i++) {
+            sources.add(MyCompletableFuture.newToComplete());
+        }
+        MyCompletableFuture.newAllOf(sources.toArray(new MyCompletableFuture[0])).thenAccept(value -> done.countDown()).fire();
+        completer.execute(() -> {
+            for (int i = 0; i < FAN_IN; i++) {
+                sources.get(i).complete(i);
+            }
+        });
+        done.await();
+    }
+
+    @Benchmark
+    public void monoAllOf() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Sinks.One<Integer>> sources = new ArrayList<>(FAN_IN);
+        final List<Mono<Integer>> monos = new ArrayList<>(FAN_IN);
+        for (int i = 0; i < FAN_IN; i++) {
+            final Sinks.One<Integer> source = Sinks.one();
+            sources.add(source);
+            monos.add(source.asMono());
+        }
+        Mono.zip(monos, values -> values.length).subscribe(value -> done.countDown());
+        completer.execute(() -> {
+            for (int i = 0; i < FAN_IN; i++) {
+                sources.get(i).tryEmitValue(i);
+            }
+        });
+        done.await();
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public void vertxFutureAllOf() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<Promise<Integer>> sources = new ArrayList<>(FAN_IN);
+        final List<Future> futures = new ArrayList<>(FAN_IN);
+        for (int i = 0; i < FAN_IN; i++) {
+            final Promise<Integer> source = Promise.promise();
+            sources.add(source);
+            futures.add(source.future());
+        }
+        CompositeFuture.all(futures).onSuccess(value -> done.countDown());
+        completer.execute(() -> {
+            for (int i = 0; i < FAN_IN; i++) {
+                sources.get(i).complete(i);
+            }
+        });
+        done.await();
+    }
+
+    @Benchmark
+    public void coroutineAllOf() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<CompletableDeferred<Integer>> sources = new ArrayList<>(FAN_IN);
+        for (int i = 0; i < FAN_IN; i++) {
+            sources.add(Coroutines.newSource());
+        }
+        final Deferred<List<Integer>> all = Coroutines.allOf(new ArrayList<>(sources));
+        all.invokeOnCompletion(cause -> {
+            done.countDown();
+            return Unit.INSTANCE;
+        });
+        completer.execute(() -> {
+            for (int i = 0; i < FAN_IN; i++) {
+                sources.get(i).complete(i);
+            }
+        });
+        done.await();
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.javaniodemo.benchmark
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.launch
+import java.util.function.IntConsumer
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * kotlin协程这一侧的调用链，java的benchmark直接调用
+ * <p>
+ * 协程没有thenApply这种操作符，每一级是一个await上一级的async；
+ * 用Dispatchers.Unconfined，和future的回调一样在完成的线程上直接接着跑，不额外切线程
+ */
+object Coroutines {
+
+    /**
+     * 不带Job，CoroutineScope(...)会自动加一个父Job，所有协程都挂在它下面，越跑越慢
+     */
+    private val scope = object : CoroutineScope {
+        override val coroutineContext: CoroutineContext = Dispatchers.Unconfined
+    }
+
+    @JvmStatic
+    fun newSource(): CompletableDeferred<Int> = CompletableDeferred()
+
+    /**
+     * depth级，每级加一
+     */
+    @JvmStatic
+    fun chain(source: Deferred<Int>, depth: Int): Deferred<Int> {
+        var deferred = source
+        repeat(depth) {
+            val prev = deferred
+            deferred = scope.async { prev.await() + 1 }
+        }
+        return deferred
+    }
+
+    @JvmStatic
+    fun allOf(children: List<Deferred<Int>>): Deferred<List<Int>> = scope.async { children.awaitAll() }
+
+    /**
+     * 完成之后加一交给callback
+     */
+    @JvmStatic
+    fun onComplete(source: Deferred<Int>, callback: IntConsumer): Job = scope.launch { callback.accept(source.await() + 1) }
+}
@@ -0,0 +1,44 @@
+package org.example.demo.loom.loomtest;
+
+import com.example.javaniodemo.myfuture.MyCompletableFuture;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 虚拟线程上block MyCompletableFuture：等待的时候只挂起虚拟线程，不占载体线程
+ * <p>
+ * 根项目的testManyBlockers在项目的jdk上只能退回1000个平台线程，这里用10万个虚拟线程跑一遍；
+ * MyCompletableFuture在根项目的test-jar里面，先在根目录mvn install -DskipTests
+ */
+public class MyCompletableFutureBlockTest {
+
+    @Test
+    public void testManyVirtualBlockers() throws Exception {
+        final int blockers = 100_000;
+        final MyCompletableFuture<String> future = MyCompletableFuture.newToComplete();
+        final CountDownLatch started = new CountDownLatch(blockers);
+        final AtomicInteger succeeded = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>(blockers);
+        for (int i = 0; i < blockers; i++) {
+            threads.add(Thread.ofVirtual().start(() -> {
+                started.countDown();
+                if ("hello".equals(future.block(Duration.ofSeconds(30)))) {
+                    succeeded.incrementAndGet();
+                }
+            }));
+        }
+        Assertions.assertTrue(started.await(30, TimeUnit.SECONDS));
+        future.complete("hello");
+        for (Thread thread : threads) {
+            Assertions.assertTrue(thread.join(Duration.ofSeconds(30)));
+        }
+        Assertions.assertEquals(blockers, succeeded.get());
+    }
+}
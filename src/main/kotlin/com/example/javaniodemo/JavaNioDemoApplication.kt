@@ -1,18 +1,43 @@
 package com.example.javaniodemo
 
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.JsonGenerator
 import kotlinx.coroutines.delay
 import mu.KotlinLogging
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.boot.autoconfigure.SpringBootApplication
 import org.springframework.boot.autoconfigure.http.HttpMessageConverters
 import org.springframework.boot.runApplication
 import org.springframework.cloud.openfeign.EnableFeignClients
 import org.springframework.context.annotation.Bean
 import org.springframework.context.annotation.Configuration
+import org.springframework.core.io.buffer.DataBuffer
+import org.springframework.core.io.buffer.DataBufferUtils
 import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpRange
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.ZeroCopyHttpOutputMessage
 import org.springframework.http.server.reactive.ServerHttpRequest
+import org.springframework.http.server.reactive.ServerHttpResponse
+import org.springframework.web.bind.annotation.PathVariable
 import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
 import org.springframework.web.context.request.WebRequest
+import org.springframework.web.server.ResponseStatusException
+import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.nio.ByteBuffer
+import java.nio.channels.AsynchronousFileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ThreadLocalRandom
+import kotlin.math.exp
+import kotlin.math.ln
+import kotlin.math.min
 import kotlin.time.ExperimentalTime
 import kotlin.time.seconds
 
@@ -26,7 +51,13 @@ fun main(args: Array<String>) {
 
 @RestController
 @EnableFeignClients
-class ServerController(){
+class ServerController(@Value("\${demo.files.dir:}") filesDir: String = "") {
+
+    /**
+     * /files/{name}下载的文件所在目录，默认是临时目录下的java-nio-demo-files
+     */
+    private val filesDir: Path = Paths.get(filesDir.ifEmpty { System.getProperty("java.io.tmpdir") + "/java-nio-demo-files" })
+        .toAbsolutePath().normalize()
 
     @RequestMapping("/")
     suspend fun server(): String {
@@ -40,6 +71,173 @@ class ServerController(){
         return "hello"
     }
 
+    /**
+     * 固定延时ms毫秒
+     */
+    @RequestMapping("/delay/{ms}")
+    suspend fun delayMillis(@PathVariable ms: Long): String {
+        delay(checkDelay(ms))
+        return "hello"
+    }
+
+    /**
+     * 按分布随机延时，模拟真实接口的长尾
+     * - dist=lognormal：对数正态分布，中位数p50、99分位p99，单位毫秒
+     * - dist=fixed：固定p50
+     */
+    @RequestMapping("/delay")
+    suspend fun delayDistribution(
+        @RequestParam(defaultValue = "lognormal") dist: String,
+        @RequestParam p50: Double,
+        @RequestParam(required = false) p99: Double?,
+    ): String {
+        delay(checkDelay(sampleDelayMillis(dist, p50, p99 ?: p50)))
+        return "hello"
+    }
+
+    /**
+     * 返回n个字节的响应体，带Content-Length
+     * <p>
+     * 不拼字符串：所有请求共用预先分配好的一块直接内存，按块切只读的视图写出去，大响应也不会在堆上产生对应大小的垃圾
+     */
+    @RequestMapping("/bytes/{n}")
+    fun bytes(@PathVariable n: Long, response: ServerHttpResponse): Mono<Void> {
+        if (n < 0 || n > MAX_BYTES) {
+            throw ResponseStatusException(HttpStatus.BAD_REQUEST, "n必须在0到${MAX_BYTES}之间")
+        }
+        response.headers.contentType = MediaType.APPLICATION_OCTET_STREAM
+        response.headers.contentLength = n
+        val factory = response.bufferFactory()
+        return response.writeWith(Flux.generate({ n }) { remaining, sink ->
+            if (remaining == 0L) {
+                sink.complete()
+                return@generate 0L
+            }
+            val size = min(remaining, PAYLOAD_CHUNK.capacity().toLong()).toInt()
+            val chunk: DataBuffer = factory.wrap(PAYLOAD_CHUNK.duplicate().limit(size))
+            sink.next(chunk)
+            remaining - size
+        })
+    }
+
+    /**
+     * 下载filesDir下的文件，支持单个Range
+     * <p>
+     * 默认走零拷贝：reactor-netty的响应实现了ZeroCopyHttpOutputMessage，底下是FileChannel.transferTo，
+     * 文件内容由内核直接从page cache发到socket，不经过jvm的堆、也不经过直接内存；
+     * zeroCopy=false走对照组，按64k一块读进buffer再写出去
+     * <p>
+     * 多个Range的请求忽略Range返回整个文件，RFC允许这么做；格式不对的Range也一样
+     */
+    @RequestMapping("/files/{name}")
+    fun download(
+        @PathVariable name: String,
+        @RequestParam(defaultValue = "true") zeroCopy: Boolean,
+        request: ServerHttpRequest,
+        response: ServerHttpResponse,
+    ): Mono<Void> {
+        val file = filesDir.resolve(name).normalize()
+        if (!file.startsWith(filesDir) || !Files.isRegularFile(file)) {
+            throw ResponseStatusException(HttpStatus.NOT_FOUND)
+        }
+        val length = Files.size(file)
+        var position = 0L
+        var count = length
+        val range = singleRange(request)
+        if (range != null) {
+            val end = range.getRangeEnd(length)
+            position = range.getRangeStart(length)
+            // 起点超出文件长度的spring不报错，自己判断
+            if (position >= length) {
+                response.statusCode = HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE
+                response.headers.set(HttpHeaders.CONTENT_RANGE, "bytes */$length")
+                return response.setComplete()
+            }
+            count = end - position + 1
+            response.statusCode = HttpStatus.PARTIAL_CONTENT
+            response.headers.set(HttpHeaders.CONTENT_RANGE, "bytes $position-$end/$length")
+        }
+        response.headers.contentType = MediaType.APPLICATION_OCTET_STREAM
+        response.headers.set(HttpHeaders.ACCEPT_RANGES, "bytes")
+        response.headers.contentLength = count
+        if (zeroCopy && response is ZeroCopyHttpOutputMessage) {
+            return response.writeWith(file, position, count)
+        }
+        val buffers = DataBufferUtils.readAsynchronousFileChannel(
+            { AsynchronousFileChannel.open(file, StandardOpenOption.READ) }, position, response.bufferFactory(), FILE_BUFFER_SIZE
+        )
+        return response.writeWith(DataBufferUtils.takeUntilByteCount(buffers, count))
+    }
+
+    private fun singleRange(request: ServerHttpRequest): HttpRange? {
+        val ranges = try {
+            request.headers.range
+        } catch (e: IllegalArgumentException) {
+            return null
+        }
+        return ranges.singleOrNull()
+    }
+
+    /**
+     * 流式返回count条记录，format=ndjson每行一个json，format=sse每条是一个data事件
+     * <p>
+     * 背压：Flux.generate只在下游要数据的时候才生成下一块，reactor-netty在channel不可写（发送缓冲区满）时不再request，
+     * 所以客户端读得再慢，服务端也只攒着高水位那么多数据，内存不随count增长
+     * <p>
+     * 不经过中间对象：jackson的JsonGenerator直接把字段写进response分配的（池化的）buffer，每块[RECORDS_PER_CHUNK]条
+     */
+    @RequestMapping("/records/{count}")
+    fun records(
+        @PathVariable count: Long,
+        @RequestParam(defaultValue = "ndjson") format: String,
+        response: ServerHttpResponse,
+    ): Mono<Void> {
+        if (count < 0 || count > MAX_RECORDS) {
+            throw ResponseStatusException(HttpStatus.BAD_REQUEST, "count必须在0到${MAX_RECORDS}之间")
+        }
+        val sse = when (format) {
+            "ndjson" -> false
+            "sse" -> true
+            else -> throw ResponseStatusException(HttpStatus.BAD_REQUEST, "不支持的格式：$format")
+        }
+        response.headers.contentType = if (sse) MediaType.TEXT_EVENT_STREAM else MediaType.APPLICATION_NDJSON
+        val factory = response.bufferFactory()
+        return response.writeWith(Flux.generate({ 0L }) { next, sink ->
+            if (next == count) {
+                sink.complete()
+                return@generate next
+            }
+            val end = min(count, next + RECORDS_PER_CHUNK)
+            val buffer = factory.allocateBuffer(RECORDS_PER_CHUNK * 64)
+            try {
+                writeRecords(buffer, next, end, sse)
+            } catch (e: Exception) {
+                DataBufferUtils.release(buffer)
+                throw e
+            }
+            sink.next(buffer)
+            end
+        })
+    }
+
+    private fun writeRecords(buffer: DataBuffer, from: Long, to: Long, sse: Boolean) {
+        val now = System.currentTimeMillis()
+        val random = ThreadLocalRandom.current()
+        JSON_FACTORY.createGenerator(buffer.asOutputStream()).use { gen ->
+            for (id in from until to) {
+                if (sse) {
+                    gen.writeRaw("data: ")
+                }
+                gen.writeStartObject()
+                gen.writeNumberField("id", id)
+                gen.writeNumberField("timestamp", now)
+                gen.writeNumberField("value", random.nextInt(1_000_000))
+                gen.writeEndObject()
+                gen.writeRaw(if (sse) "\n\n" else "\n")
+            }
+        }
+    }
+
     @RequestMapping("/headerTest")
     suspend fun headerTest(req: ServerHttpRequest): Map<String, MutableList<String>> {
         log.info { req.headers }
@@ -48,6 +246,80 @@ class ServerController(){
 }
 
 
+/**
+ * 延时上限，防止传错参数、或者分布的长尾把连接挂太久
+ */
+const val MAX_DELAY_MILLIS = 60_000L
+
+/**
+ * /bytes/{n}的上限
+ */
+const val MAX_BYTES = 1L shl 30
+
+/**
+ * /records/{count}的上限
+ */
+const val MAX_RECORDS = 1_000_000_000L
+
+/**
+ * /records/{count}每块写多少条记录
+ */
+private const val RECORDS_PER_CHUNK = 128
+
+/**
+ * /records/{count}写记录用的，记录之间的分隔自己写，不要jackson默认的空格
+ */
+private val JSON_FACTORY: JsonFactory = JsonFactory()
+    .setRootValueSeparator(null)
+    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+
+/**
+ * /files/{name}对照组每次读文件的块大小
+ */
+private const val FILE_BUFFER_SIZE = 64 * 1024
+
+/**
+ * 标准正态分布的99分位
+ */
+private const val Z_99 = 2.3263478740408408
+
+/**
+ * /bytes/{n}共用的响应体内容，64k一块，只读；每次写出去的是它的视图，不复制内容
+ */
+private val PAYLOAD_CHUNK: ByteBuffer = ByteBuffer.allocateDirect(64 * 1024).apply {
+    for (i in 0 until capacity()) {
+        put(('a' + i % 26).code.toByte())
+    }
+    flip()
+}.asReadOnlyBuffer()
+
+private fun checkDelay(ms: Long): Long {
+    if (ms < 0 || ms > MAX_DELAY_MILLIS) {
+        throw ResponseStatusException(HttpStatus.BAD_REQUEST, "延时必须在0到${MAX_DELAY_MILLIS}毫秒之间")
+    }
+    return ms
+}
+
+/**
+ * 按分布抽一个延时，单位毫秒；超过上限的截到上限
+ */
+fun sampleDelayMillis(dist: String, p50: Double, p99: Double): Long {
+    if (p50 <= 0 || p99 < p50) {
+        throw ResponseStatusException(HttpStatus.BAD_REQUEST, "要求0 < p50 <= p99")
+    }
+    val millis = when (dist) {
+        "fixed" -> p50
+        "lognormal" -> {
+            // 中位数是e^mu，99分位是e^(mu + z99 * sigma)
+            val mu = ln(p50)
+            val sigma = (ln(p99) - mu) / Z_99
+            exp(mu + sigma * ThreadLocalRandom.current().nextGaussian())
+        }
+        else -> throw ResponseStatusException(HttpStatus.BAD_REQUEST, "不支持的分布：$dist")
+    }
+    return min(millis.toLong(), MAX_DELAY_MILLIS)
+}
+
 @Configuration
 class Config {
     @Bean
@@ -0,0 +1,24 @@
+package com.example.javaniodemo
+
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+
+/**
+ * 服务端的监控，都从/actuator/prometheus拉，由micrometer-registry-prometheus输出：
+ * - http.server.requests：spring boot自带的webflux指标，每个路由按模板（如/delay/{ms}）一个timer，
+ *   application.properties里打开了百分位直方图，看p99用histogram_quantile；_max是最近两分钟左右的最大值，不是启动以来的
+ * - reactor.netty.*：连接数、池化分配器的内存，以及每个event loop里排队的任务数reactor.netty.eventloop.pending.tasks，
+ *   这个一直涨说明event loop忙不过来了
+ */
+@Configuration
+class MetricsConfig {
+
+    /**
+     * 打开reactor-netty的指标；它的uri标签只留第一段，/delay/{ms}、/files/{name}这种不然每个参数值都是一条时间序列
+     */
+    @Bean
+    fun nettyMetricsCustomizer() = NettyServerCustomizer { server ->
+        server.metrics(true) { uri -> "/" + uri.removePrefix("/").substringBefore('/').substringBefore('?') }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.javaniodemo;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /files/{name}下载一个1g的文件，零拷贝和按块读的对照组比较，结果单位是毫秒/次
+ * <p>
+ * 服务端和客户端在同一个进程里，客户端是阻塞的SocketChannel，读进同一块直接内存，自己基本不分配；
+ * 所以-prof gc的gc.alloc.rate.norm基本就是服务端每次下载分配的字节数，辅助指标：
+ * - mbPerSecond：吞吐
+ * - cpuMillis：每次下载整个进程用掉的cpu时间
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class FileDownloadBenchmark {
+
+    static final long FILE_SIZE = 1L << 30;
+    static final String FILE_NAME = "download-benchmark.bin";
+
+    @Param({"true", "false"})
+    boolean zeroCopy;
+
+    Path dir;
+    ConfigurableApplicationContext context;
+    InetSocketAddress server;
+    final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Stats extends PerIterationCounters {
+
+        public double mbPerSecond;
+
+        public double cpuMillis;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            mbPerSecond = 0;
+            cpuMillis = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("java-nio-demo-files");
+        // 写真实内容，不用稀疏文件，免得读的是文件空洞
+        final ByteBuffer chunk = ByteBuffer.allocateDirect(1024 * 1024);
+        for (int i = 0; i < chunk.capacity(); i++) {
+            chunk.put((byte) (i % 251));
+        }
+        try (FileChannel channel = FileChannel.open(dir.resolve(FILE_NAME), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            for (long written = 0; written < FILE_SIZE; written += chunk.capacity()) {
+                chunk.clear();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        }
+        context = new SpringApplicationBuilder(JavaNioDemoApplication.class)
+                .properties("server.port=0", "demo.files.dir=" + dir)
+                .run();
+        server = new InetSocketAddress("localhost", ((ReactiveWebServerApplicationContext) context).getWebServer().getPort());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+        Files.deleteIfExists(dir.resolve(FILE_NAME));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public long download(Stats stats) throws IOException {
+        final com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        final long cpuBefore = os.getProcessCpuTime();
+        final long start = System.nanoTime();
+
+        long received = 0;
+        try (SocketChannel channel = SocketChannel.open(server)) {
+            final String request = "GET /files/" + FILE_NAME + "?zeroCopy=" + zeroCopy + " HTTP/1.1\r\n"
+                    + "Host: localhost\r\nConnection: close\r\n\r\n";
+            final ByteBuffer requestBuffer = ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+            while (requestBuffer.hasRemaining()) {
+                channel.write(requestBuffer);
+            }
+            // 读到服务端关闭连接为止，算上响应头
+            int read;
+            while ((read = channel.read(readBuffer)) >= 0) {
+                received += read;
+                readBuffer.clear();
+            }
+        }
+        if (received < FILE_SIZE) {
+            throw new IllegalStateException("只收到" + received + "字节");
+        }
+
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        stats.mbPerSecond = stats.perIteration(FILE_SIZE / 1024.0 / 1024.0 / seconds);
+        stats.cpuMillis = stats.perIteration((os.getProcessCpuTime() - cpuBefore) / 1e6);
+        return received;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(FileDownloadBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
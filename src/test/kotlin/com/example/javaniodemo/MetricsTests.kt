@@ -0,0 +1,49 @@
+package com.example.javaniodemo
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics
+import org.springframework.boot.test.context.SpringBootTest
+import org.springframework.test.web.reactive.server.WebTestClient
+import org.springframework.test.web.reactive.server.expectBody
+
+/**
+ * 测试里spring boot默认不导出指标，只留内存里的SimpleMeterRegistry，用AutoConfigureMetrics打开prometheus
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureMetrics
+class MetricsTests {
+
+    @Autowired
+    private lateinit var client: WebTestClient
+
+    @Test
+    fun scrape() {
+        repeat(3) { client.get().uri("/delay/10").exchange().expectStatus().isOk }
+        val text = client.get().uri("/actuator/prometheus").exchange()
+            .expectStatus().isOk
+            .expectBody<String>().returnResult().responseBody!!
+
+        // 路由按模板一个直方图，状态、异常不同的是不同的序列；每个序列的桶是累计的，最后一个是+Inf
+        val series = text.lines()
+            .filter { it.startsWith("http_server_requests_seconds_bucket{") && it.contains("uri=\"/delay/{ms}\"") }
+            .groupBy { it.substringBefore(",le=") }
+        Assertions.assertFalse(series.isEmpty(), "没有直方图的桶")
+        var total = 0.0
+        series.values.forEach { buckets ->
+            Assertions.assertTrue(buckets.size > 10)
+            val counts = buckets.map { it.substringAfterLast(' ').toDouble() }
+            Assertions.assertEquals(counts.sorted(), counts)
+            Assertions.assertTrue(buckets.last().contains("le=\"+Inf\""))
+            total += counts.last()
+        }
+        Assertions.assertTrue(total >= 3)
+        Assertions.assertTrue(text.contains("# TYPE http_server_requests_seconds histogram"))
+        Assertions.assertTrue(text.contains("# TYPE http_server_requests_seconds_max gauge"))
+
+        Assertions.assertTrue(text.contains("reactor_netty_eventloop_pending_tasks{"))
+        Assertions.assertTrue(text.contains("reactor_netty_http_server_connections_active{"))
+        Assertions.assertTrue(text.contains("reactor_netty_bytebuf_allocator_used_direct_memory{"))
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.javaniodemo;
+
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * 按迭代测量的辅助指标的基类，子类加上{@code @State(Scope.Thread)}和{@code @AuxCounters(AuxCounters.Type.EVENTS)}，
+ * 指标是子类的public字段
+ * <p>
+ * JMH把EVENTS计数器在测量迭代之间累加起来，而这些指标每次迭代测一个值；
+ * 子类每次迭代把测到的值经过{@link #perIteration}再写进字段，汇总出来的就是每次迭代的平均值
+ */
+public abstract class PerIterationCounters {
+
+    private int iterations;
+
+    @Setup
+    public void readIterations(BenchmarkParams params) {
+        iterations = params.getMeasurement().getCount();
+    }
+
+    /**
+     * @return 这次迭代测到的值在汇总结果里面占的份额
+     */
+    public double perIteration(double value) {
+        return value / iterations;
+    }
+}
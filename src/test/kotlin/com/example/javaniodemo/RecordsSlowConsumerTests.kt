@@ -0,0 +1,95 @@
+package com.example.javaniodemo
+
+import io.netty.buffer.PooledByteBufAllocator
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.springframework.boot.builder.SpringApplicationBuilder
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext
+import org.springframework.context.ConfigurableApplicationContext
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.ByteBuffer
+import java.nio.channels.SocketChannel
+import java.nio.charset.StandardCharsets
+
+/**
+ * /records/{count}的背压：起一个真的服务端，客户端要一千万条（几百兆），但每次只读1k、读完睡一会，读5秒，
+ * 服务端的堆和netty池化的直接内存都不能跟着涨
+ */
+class RecordsSlowConsumerTests {
+
+    private lateinit var context: ConfigurableApplicationContext
+    private lateinit var server: InetSocketAddress
+
+    @BeforeEach
+    fun setUp() {
+        context = SpringApplicationBuilder(JavaNioDemoApplication::class.java)
+            .properties("server.port=0")
+            .run()
+        server = InetSocketAddress("localhost", (context as ReactiveWebServerApplicationContext).webServer.port)
+    }
+
+    @AfterEach
+    fun tearDown() {
+        context.close()
+    }
+
+    @Test
+    fun memoryStaysBounded() {
+        // 先正常读完一次，让生成的代码热起来，不然慢客户端的这几秒里冷的代码本来就生成不了多少
+        SocketChannel.open(server).use { channel ->
+            val request = "GET /records/500000 HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n"
+            channel.write(ByteBuffer.wrap(request.toByteArray(StandardCharsets.US_ASCII)))
+            val buffer = ByteBuffer.allocateDirect(64 * 1024)
+            while (channel.read(buffer) >= 0) {
+                buffer.clear()
+            }
+        }
+
+        val heapBefore = usedHeap()
+        val directBefore = usedDirect()
+        var maxHeapGrowth = 0L
+        var maxDirectGrowth = 0L
+        var received = 0L
+
+        SocketChannel.open().use { channel ->
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 4096)
+            channel.connect(server)
+            val request = "GET /records/10000000 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+            channel.write(ByteBuffer.wrap(request.toByteArray(StandardCharsets.US_ASCII)))
+
+            val buffer = ByteBuffer.allocate(1024)
+            val deadline = System.currentTimeMillis() + 5000
+            var nextSample = System.currentTimeMillis() + 500
+            while (System.currentTimeMillis() < deadline) {
+                buffer.clear()
+                received += channel.read(buffer)
+                Thread.sleep(5)
+                if (System.currentTimeMillis() >= nextSample) {
+                    maxHeapGrowth = maxOf(maxHeapGrowth, usedHeap() - heapBefore)
+                    maxDirectGrowth = maxOf(maxDirectGrowth, usedDirect() - directBefore)
+                    nextSample += 500
+                }
+            }
+        }
+
+        log.info { "慢客户端读了${received}字节，堆最多涨了${maxHeapGrowth / 1024}k，池化直接内存最多涨了${maxDirectGrowth / 1024}k" }
+        Assertions.assertTrue(received > 0)
+        // 不限流的话五秒里能生成几百兆，这里留足余量；池化的直接内存按16m一个chunk申请
+        Assertions.assertTrue(maxHeapGrowth < 32 * 1024 * 1024, "堆涨了${maxHeapGrowth}字节")
+        Assertions.assertTrue(maxDirectGrowth < 64 * 1024 * 1024, "直接内存涨了${maxDirectGrowth}字节")
+    }
+
+    private fun usedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        repeat(3) { System.gc() }
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    /**
+     * reactor-netty用的是netty默认的池化分配器，池子申请了多少直接内存
+     */
+    private fun usedDirect(): Long = PooledByteBufAllocator.DEFAULT.metric().usedDirectMemory()
+}
@@ -0,0 +1,132 @@
+package com.example.javaniodemo
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.springframework.http.HttpHeaders
+import org.springframework.http.MediaType
+import org.springframework.test.web.reactive.server.WebTestClient
+import org.springframework.test.web.reactive.server.expectBody
+import java.nio.file.Files
+import java.nio.file.Path
+
+class ServerControllerTests {
+
+    private val mapper = ObjectMapper()
+
+    private val client = WebTestClient.bindToController(ServerController())
+        .configureClient()
+        .codecs { it.defaultCodecs().maxInMemorySize(2 * 1024 * 1024) }
+        .build()
+
+    @Test
+    fun delayMillis() {
+        val start = System.currentTimeMillis()
+        client.get().uri("/delay/200").exchange()
+            .expectStatus().isOk
+            .expectBody<String>().isEqualTo("hello")
+        Assertions.assertTrue(System.currentTimeMillis() - start >= 200)
+
+        client.get().uri("/delay/-1").exchange().expectStatus().isBadRequest
+    }
+
+    @Test
+    fun delayDistribution() {
+        client.get().uri("/delay?dist=lognormal&p50=5&p99=50").exchange()
+            .expectStatus().isOk
+            .expectBody<String>().isEqualTo("hello")
+        client.get().uri("/delay?dist=pareto&p50=5").exchange().expectStatus().isBadRequest
+        client.get().uri("/delay?p50=50&p99=5").exchange().expectStatus().isBadRequest
+    }
+
+    /**
+     * 抽样的中位数、99分位和参数大致对得上
+     */
+    @Test
+    fun lognormalPercentiles() {
+        val samples = (1..100_000).map { sampleDelayMillis("lognormal", 100.0, 1000.0) }.sorted()
+        Assertions.assertEquals(100.0, samples[50_000].toDouble(), 10.0)
+        Assertions.assertEquals(1000.0, samples[99_000].toDouble(), 150.0)
+        Assertions.assertEquals(MAX_DELAY_MILLIS, sampleDelayMillis("lognormal", 1_000_000.0, 2_000_000.0))
+    }
+
+    @Test
+    fun bytes() {
+        for (n in listOf(0, 1, 64 * 1024, 1_000_000)) {
+            val body = client.get().uri("/bytes/$n").exchange()
+                .expectStatus().isOk
+                .expectHeader().contentLength(n.toLong())
+                .expectBody().returnResult().responseBody ?: ByteArray(0)
+            Assertions.assertEquals(n, body.size)
+            body.forEachIndexed { i, b -> if (b != ('a' + i % (64 * 1024) % 26).code.toByte()) Assertions.fail<Unit>("第${i}个字节不对") }
+        }
+        client.get().uri("/bytes/-1").exchange().expectStatus().isBadRequest
+    }
+
+    @Test
+    fun records() {
+        val ndjson = client.get().uri("/records/1000").exchange()
+            .expectStatus().isOk
+            .expectHeader().contentType(MediaType.APPLICATION_NDJSON)
+            .expectBody<String>().returnResult().responseBody!!
+        val lines = ndjson.split("\n")
+        Assertions.assertEquals(1001, lines.size)
+        Assertions.assertEquals("", lines.last())
+        lines.dropLast(1).forEachIndexed { i, line ->
+            Assertions.assertEquals(i.toLong(), mapper.readTree(line)["id"].asLong())
+        }
+
+        val sse = client.get().uri("/records/300?format=sse").exchange()
+            .expectStatus().isOk
+            .expectHeader().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM)
+            .expectBody<String>().returnResult().responseBody!!
+        val events = sse.split("\n\n").dropLast(1)
+        Assertions.assertEquals(300, events.size)
+        events.forEachIndexed { i, event ->
+            Assertions.assertTrue(event.startsWith("data: "))
+            Assertions.assertEquals(i.toLong(), mapper.readTree(event.removePrefix("data: "))["id"].asLong())
+        }
+
+        client.get().uri("/records/0").exchange().expectStatus().isOk.expectBody().isEmpty
+        client.get().uri("/records/-1").exchange().expectStatus().isBadRequest
+        client.get().uri("/records/10?format=csv").exchange().expectStatus().isBadRequest
+    }
+
+    /**
+     * 这里是mock的响应，不支持零拷贝，走的是按块读的对照组；零拷贝见FileDownloadBenchmark
+     */
+    @Test
+    fun files(@TempDir dir: Path) {
+        val content = ByteArray(300_000) { (it % 251).toByte() }
+        Files.write(dir.resolve("a.bin"), content)
+        val client = WebTestClient.bindToController(ServerController(dir.toString()))
+            .configureClient()
+            .codecs { it.defaultCodecs().maxInMemorySize(2 * 1024 * 1024) }
+            .build()
+
+        val whole = client.get().uri("/files/a.bin").exchange()
+            .expectStatus().isOk
+            .expectHeader().contentLength(content.size.toLong())
+            .expectHeader().valueEquals(HttpHeaders.ACCEPT_RANGES, "bytes")
+            .expectBody().returnResult().responseBody
+        Assertions.assertArrayEquals(content, whole)
+
+        val partial = client.get().uri("/files/a.bin").header(HttpHeaders.RANGE, "bytes=100000-100009").exchange()
+            .expectStatus().isEqualTo(206)
+            .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 100000-100009/300000")
+            .expectBody().returnResult().responseBody
+        Assertions.assertArrayEquals(content.copyOfRange(100_000, 100_010), partial)
+
+        val suffix = client.get().uri("/files/a.bin").header(HttpHeaders.RANGE, "bytes=-5").exchange()
+            .expectStatus().isEqualTo(206)
+            .expectBody().returnResult().responseBody
+        Assertions.assertArrayEquals(content.copyOfRange(content.size - 5, content.size), suffix)
+
+        client.get().uri("/files/a.bin").header(HttpHeaders.RANGE, "bytes=300000-").exchange()
+            .expectStatus().isEqualTo(416)
+            .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes */300000")
+        client.get().uri("/files/missing.bin").exchange().expectStatus().isNotFound
+        client.get().uri("/files/..%2F..%2Fetc%2Fpasswd").exchange().expectStatus().isNotFound
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.javaniodemo.demo;
+
+import com.example.javaniodemo.myfuture.MyCompletableFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 客户端准入控制：限制同时在途的请求数，超出的排队或者拒绝，不阻塞任何线程
+ * <p>
+ * 各个demo的multiTest一下子把所有请求都发出去，生产环境里面一波突发流量就能把文件句柄、服务端的accept队列打满；
+ * 放在{@link ApiRequest}前面，拿到许可才真正发请求，请求结束归还许可并放行队头
+ * <p>
+ * - 许可是一个CAS计数器，拿不到也不阻塞，按{@link Overflow}处理
+ * - 等待队列有界，排队的请求在有许可归还时按先进先出放行
+ * - 各种异步类型的适配见{@link #completableFuture}、{@link #mono}、{@link #vertx}、{@link #myFuture}，
+ * 协程见AdmissionControllerCoroutine.kt
+ * <p>
+ * 统计当前在途数、队列深度、排队等待时间、拒绝数
+ */
+public class AdmissionController {
+
+    /**
+     * 拿不到许可时的处理方式
+     */
+    public enum Overflow {
+        /**
+         * 不排队，直接拒绝
+         */
+        REJECT,
+        /**
+         * 排队，队列满了拒绝新来的
+         */
+        QUEUE,
+        /**
+         * 排队，队列满了丢掉等得最久的，让新来的排进去
+         */
+        SHED_OLDEST,
+    }
+
+    /**
+     * 排队的请求
+     */
+    private static final class Waiter {
+        final Runnable onGranted;
+        final Consumer<RejectedExecutionException> onRejected;
+        final long enqueueNanos = System.nanoTime();
+        /**
+         * 放行、拒绝、取消只能发生一个
+         */
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Waiter(Runnable onGranted, Consumer<RejectedExecutionException> onRejected) {
+            this.onGranted = onGranted;
+            this.onRejected = onRejected;
+        }
+    }
+
+    /**
+     * 排队中的请求取消排队，已经放行或者拒绝的话什么都不做
+     */
+    public interface Cancellable {
+        void cancel();
+    }
+
+    private final int maxInFlight;
+    private final int maxQueue;
+    private final Overflow overflow;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentLinkedDeque<Waiter> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    /**
+     * 当前线程是不是已经在{@link #drain()}里面：放行的回调里面同步归还许可时不再递归，由外层的循环接着放行，
+     * 否则排队的请求多了会栈溢出
+     */
+    private final ThreadLocal<boolean[]> draining = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder queuedCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param maxInFlight 同时在途的请求数上限
+     * @param maxQueue    等待队列长度上限，REJECT时忽略
+     */
+    public AdmissionController(int maxInFlight, int maxQueue, Overflow overflow) {
+        if (maxInFlight <= 0 || maxQueue < 0) {
+            throw new IllegalArgumentException("maxInFlight: " + maxInFlight + ", maxQueue: " + maxQueue);
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxQueue = maxQueue;
+        this.overflow = overflow;
+    }
+
+    /**
+     * 申请许可，拿到了在当前线程调用onGranted，排队的话在归还许可的线程调用；
+     * 被拒绝调用onRejected。拿到许可之后不管请求成功失败都必须{@link #release()}
+     *
+     * @return 用来取消排队
+     */
+    public Cancellable acquire(Runnable onGranted, Consumer<RejectedExecutionException> onRejected) {
+        if (tryAcquire()) {
+            admitted.increment();
+            onGranted.run();
+            return () -> {
+            };
+        }
+        if (overflow == Overflow.REJECT) {
+            reject(new Waiter(onGranted, onRejected), "no permit available");
+            return () -> {
+            };
+        }
+        final Waiter waiter = new Waiter(onGranted, onRejected);
+        if (queueSize.incrementAndGet() > maxQueue) {
+            if (overflow == Overflow.QUEUE) {
+                queueSize.decrementAndGet();
+                reject(waiter, "wait queue full");
+                return () -> {
+                };
+            }
+            // SHED_OLDEST：名额还是算在新来的头上，挤掉的那个把名额还回来
+            final Waiter oldest = queue.pollFirst();
+            queueSize.decrementAndGet();
+            if (oldest == null) {
+                // 队列长度为0，没有可挤的
+                reject(waiter, "wait queue full");
+                return () -> {
+                };
+            }
+            if (oldest.done.compareAndSet(false, true)) {
+                shed.increment();
+                reject(oldest, "shed by newer request");
+            }
+        }
+        queue.addLast(waiter);
+        queuedCount.increment();
+        maxQueueDepth.accumulate(queueSize.get());
+        // 入队的同时可能刚好有许可归还，归还的线程没看到这个waiter，这里自己再放行一次
+        drain();
+        return () -> {
+            if (waiter.done.compareAndSet(false, true) && queue.remove(waiter)) {
+                queueSize.decrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * 归还许可，放行排队的请求
+     */
+    public void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxInFlight) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void drain() {
+        final boolean[] inDrain = draining.get();
+        if (inDrain[0]) {
+            return;
+        }
+        inDrain[0] = true;
+        try {
+            drainLoop();
+        } finally {
+            inDrain[0] = false;
+        }
+    }
+
+    private void drainLoop() {
+        while (!queue.isEmpty() && tryAcquire()) {
+            Waiter waiter;
+            do {
+                waiter = queue.pollFirst();
+                if (waiter != null) {
+                    queueSize.decrementAndGet();
+                }
+            } while (waiter != null && !waiter.done.compareAndSet(false, true));
+            if (waiter == null) {
+                // 被别的线程抢先放行了，许可还回去
+                inFlight.decrementAndGet();
+                continue;
+            }
+            final long waitNanos = System.nanoTime() - waiter.enqueueNanos;
+            totalWaitNanos.add(waitNanos);
+            maxWaitNanos.accumulate(waitNanos);
+            admitted.increment();
+            waiter.onGranted.run();
+        }
+    }
+
+    private void reject(Waiter waiter, String reason) {
+        rejected.increment();
+        waiter.onRejected.accept(new RejectedExecutionException(reason));
+    }
+
+    /**
+     * 包装返回CompletableFuture的请求
+     */
+    public <T> CompletableFuture<T> completableFuture(Supplier<CompletableFuture<T>> request) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        acquire(() -> {
+            try {
+                request.get().whenComplete((value, e) -> {
+                    release();
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (Exception e) {
+                release();
+                result.completeExceptionally(e);
+            }
+        }, result::completeExceptionally);
+        return result;
+    }
+
+    /**
+     * 包装返回Mono的请求，订阅时才申请许可，取消订阅时退出排队
+     */
+    public <T> Mono<T> mono(Supplier<Mono<T>> request) {
+        return Mono.create(sink -> {
+            final Cancellable cancellable = acquire(() -> {
+                final AtomicBoolean released = new AtomicBoolean();
+                final Runnable releaseOnce = () -> {
+                    if (released.compareAndSet(false, true)) {
+                        release();
+                    }
+                };
+                final Disposable subscription = Mono.defer(request)
+                        .doFinally(signal -> releaseOnce.run())
+                        .subscribe(sink::success, sink::error, sink::success);
+                // 下游取消时取消真正的请求
+                sink.onDispose(() -> {
+                    subscription.dispose();
+                    releaseOnce.run();
+                });
+            }, sink::error);
+            sink.onCancel(cancellable::cancel);
+        });
+    }
+
+    /**
+     * 包装返回vert.x Future的请求
+     */
+    public <T> Future<T> vertx(Supplier<Future<T>> request) {
+        final Promise<T> promise = Promise.promise();
+        acquire(() -> {
+            try {
+                request.get().onComplete(ar -> {
+                    release();
+                    promise.handle(ar);
+                });
+            } catch (Exception e) {
+                release();
+                promise.fail(e);
+            }
+        }, promise::fail);
+        return promise.future();
+    }
+
+    /**
+     * 包装返回MyCompletableFuture的请求，被拒绝时以RejectedExecutionException失败
+     */
+    public <T> MyCompletableFuture<T> myFuture(Supplier<MyCompletableFuture<T>> request) {
+        final MyCompletableFuture<T> result = MyCompletableFuture.newToComplete();
+        acquire(() -> {
+            try {
+                request.get()
+                        .whenComplete((value, e) -> {
+                            release();
+                            if (e != null) {
+                                result.completeExceptionally(e);
+                            } else {
+                                result.complete(value);
+                            }
+                        })
+                        .fire();
+            } catch (Exception e) {
+                release();
+                result.completeExceptionally(e);
+            }
+        }, result::completeExceptionally);
+        return result;
+    }
+
+    /**
+     * 把一个{@link ApiRequest}包装成经过准入控制的
+     */
+    public <T> ApiRequest<CompletableFuture<T>> wrap(ApiRequest<CompletableFuture<T>> apiRequest) {
+        return () -> completableFuture(apiRequest::apiRequest);
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public int queueDepth() {
+        return queueSize.get();
+    }
+
+    public long maxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long rejectedCount() {
+        return rejected.sum();
+    }
+
+    public long shedCount() {
+        return shed.sum();
+    }
+
+    /**
+     * 排过队的请求平均等了多久
+     */
+    public double averageWaitMillis() {
+        final long queued = queuedCount.sum();
+        return queued == 0 ? 0 : totalWaitNanos.sum() / 1e6 / queued;
+    }
+
+    public double maxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("在途：%d，排队：%d，最大排队：%d，放行：%d，拒绝：%d（挤掉%d），平均等待ms：%.1f，最长等待ms：%.1f",
+                inFlight(), queueDepth(), maxQueueDepth(), admitted.sum(), rejectedCount(), shedCount(),
+                averageWaitMillis(), maxWaitMillis());
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.javaniodemo.demo
+
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.cancellation.CancellationException
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * 协程版的准入控制：挂起等待许可，不阻塞线程；排队期间协程被取消就退出排队
+ */
+suspend fun <T> AdmissionController.withPermit(block: suspend () -> T): T {
+    // 放行和取消可能同时发生，谁后到谁负责还许可，保证许可只还一次
+    val state = AtomicInteger(WAITING)
+    try {
+        suspendCancellableCoroutine<Unit> { continuation ->
+            val cancellable = acquire(
+                {
+                    if (state.compareAndSet(WAITING, GRANTED)) {
+                        continuation.resume(Unit)
+                    } else {
+                        release()
+                    }
+                },
+                { continuation.resumeWithException(it) }
+            )
+            continuation.invokeOnCancellation { cancellable.cancel() }
+        }
+    } catch (e: CancellationException) {
+        // 放行之后、协程恢复之前被取消，协程不会再往下走，许可在这里还回去
+        if (!state.compareAndSet(WAITING, ABANDONED)) {
+            release()
+        }
+        throw e
+    }
+    try {
+        return block()
+    } finally {
+        release()
+    }
+}
+
+private const val WAITING = 0
+private const val GRANTED = 1
+private const val ABANDONED = 2
+
+/**
+ * 把一个[ApiRequestCoroutine]包装成经过准入控制的
+ */
+fun <T> ApiRequestCoroutine<T>.admittedBy(controller: AdmissionController): ApiRequestCoroutine<T> {
+    val apiRequest = this
+    return object : ApiRequestCoroutine<T> {
+        override suspend fun apiRequest(): T = controller.withPermit { apiRequest.apiRequest() }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.javaniodemo.demo
+
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class AdmissionControllerCoroutineTest {
+
+    @Test
+    fun `suspend until permit`(): Unit = runBlocking {
+        val controller = AdmissionController(1, 10, AdmissionController.Overflow.QUEUE)
+        val upstream = CompletableDeferred<String>()
+        val first = async { controller.withPermit { upstream.await() } }
+        val second = async { controller.withPermit { "b" } }
+        yield()
+        Assertions.assertEquals(1, controller.inFlight())
+        Assertions.assertEquals(1, controller.queueDepth())
+        upstream.complete("a")
+        Assertions.assertEquals("a", first.await())
+        Assertions.assertEquals("b", second.await())
+        Assertions.assertEquals(0, controller.inFlight())
+    }
+
+    @Test
+    fun `cancel while queued`(): Unit = runBlocking {
+        val controller = AdmissionController(1, 10, AdmissionController.Overflow.QUEUE)
+        val upstream = CompletableDeferred<String>()
+        val first = async { controller.withPermit { upstream.await() } }
+        val queued = launch { controller.withPermit { Assertions.fail<Unit>() } }
+        yield()
+        queued.cancel()
+        queued.join()
+        Assertions.assertEquals(0, controller.queueDepth())
+        upstream.complete("a")
+        first.await()
+        Assertions.assertEquals(0, controller.inFlight())
+    }
+
+    /**
+     * 已经放行、还没恢复的时候被取消：协程不会再执行，许可要还回去
+     */
+    @Test
+    fun `cancel after granted`(): Unit = runBlocking {
+        val controller = AdmissionController(1, 10, AdmissionController.Overflow.QUEUE)
+        controller.acquire({}, {})
+        val queued = launch { controller.withPermit { Assertions.fail<Unit>() } }
+        yield()
+        Assertions.assertEquals(1, controller.queueDepth())
+        // 放行只是把恢复排进了runBlocking的队列，协程还没跑就取消
+        controller.release()
+        queued.cancel()
+        queued.join()
+        Assertions.assertEquals(0, controller.inFlight())
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.javaniodemo.demo;
+
+import com.example.javaniodemo.myfuture.MyCompletableFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AdmissionControllerTest {
+
+    /**
+     * 超出许可的请求排队，许可归还时按先进先出放行
+     */
+    @Test
+    public void testQueueFifo() {
+        final AdmissionController controller = new AdmissionController(2, 10, AdmissionController.Overflow.QUEUE);
+        final List<Integer> granted = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final int id = i;
+            controller.acquire(() -> granted.add(id), e -> Assertions.fail(e));
+        }
+        Assertions.assertEquals(List.of(0, 1), granted);
+        Assertions.assertEquals(2, controller.inFlight());
+        Assertions.assertEquals(3, controller.queueDepth());
+
+        controller.release();
+        Assertions.assertEquals(List.of(0, 1, 2), granted);
+        controller.release();
+        controller.release();
+        Assertions.assertEquals(List.of(0, 1, 2, 3, 4), granted);
+        Assertions.assertEquals(0, controller.queueDepth());
+        Assertions.assertEquals(3, controller.maxQueueDepth());
+    }
+
+    @Test
+    public void testReject() {
+        final AdmissionController controller = new AdmissionController(1, 10, AdmissionController.Overflow.REJECT);
+        final List<Exception> rejected = new ArrayList<>();
+        controller.acquire(() -> {
+        }, rejected::add);
+        controller.acquire(() -> Assertions.fail(), rejected::add);
+        Assertions.assertEquals(1, rejected.size());
+        Assertions.assertEquals(0, controller.queueDepth());
+        Assertions.assertEquals(1, controller.rejectedCount());
+    }
+
+    @Test
+    public void testQueueFull() {
+        final AdmissionController controller = new AdmissionController(1, 1, AdmissionController.Overflow.QUEUE);
+        final List<String> events = new ArrayList<>();
+        controller.acquire(() -> events.add("granted-0"), e -> events.add("rejected-0"));
+        controller.acquire(() -> events.add("granted-1"), e -> events.add("rejected-1"));
+        controller.acquire(() -> events.add("granted-2"), e -> events.add("rejected-2"));
+        Assertions.assertEquals(List.of("granted-0", "rejected-2"), events);
+        controller.release();
+        Assertions.assertEquals(List.of("granted-0", "rejected-2", "granted-1"), events);
+    }
+
+    @Test
+    public void testShedOldest() {
+        final AdmissionController controller = new AdmissionController(1, 2, AdmissionController.Overflow.SHED_OLDEST);
+        final List<String> events = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int id = i;
+            controller.acquire(() -> events.add("granted-" + id), e -> events.add("rejected-" + id));
+        }
+        // 1等得最久，被3挤掉
+        Assertions.assertEquals(List.of("granted-0", "rejected-1"), events);
+        Assertions.assertEquals(2, controller.queueDepth());
+        controller.release();
+        controller.release();
+        Assertions.assertEquals(List.of("granted-0", "rejected-1", "granted-2", "granted-3"), events);
+        Assertions.assertEquals(1, controller.shedCount());
+    }
+
+    @Test
+    public void testCancel() {
+        final AdmissionController controller = new AdmissionController(1, 10, AdmissionController.Overflow.QUEUE);
+        controller.acquire(() -> {
+        }, e -> Assertions.fail(e));
+        final AdmissionController.Cancellable cancellable = controller.acquire(() -> Assertions.fail(), e -> Assertions.fail(e));
+        cancellable.cancel();
+        Assertions.assertEquals(0, controller.queueDepth());
+        controller.release();
+        Assertions.assertEquals(0, controller.inFlight());
+    }
+
+    /**
+     * 多线程同时申请、归还，在途数不会超过上限，所有请求最终都放行
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        final int maxInFlight = 4;
+        final int threads = 8;
+        final int requestsPerThread = 10_000;
+        final AdmissionController controller = new AdmissionController(maxInFlight, threads * requestsPerThread, AdmissionController.Overflow.QUEUE);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger overLimit = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(threads * requestsPerThread);
+        final List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < requestsPerThread; i++) {
+                    controller.acquire(() -> {
+                        if (active.incrementAndGet() > maxInFlight) {
+                            overLimit.incrementAndGet();
+                        }
+                        active.decrementAndGet();
+                        controller.release();
+                        done.countDown();
+                    }, e -> Assertions.fail(e));
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, overLimit.get());
+        Assertions.assertEquals(0, controller.inFlight());
+        Assertions.assertEquals(0, controller.queueDepth());
+    }
+
+    @Test
+    public void testCompletableFuture() throws Exception {
+        final AdmissionController controller = new AdmissionController(1, 0, AdmissionController.Overflow.QUEUE);
+        final CompletableFuture<String> upstream = new CompletableFuture<>();
+        final CompletableFuture<String> first = controller.completableFuture(() -> upstream);
+        final CompletableFuture<String> second = controller.completableFuture(() -> CompletableFuture.completedFuture("b"));
+        final ExecutionException e = Assertions.assertThrows(ExecutionException.class, second::get);
+        Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+
+        upstream.complete("a");
+        Assertions.assertEquals("a", first.get());
+        Assertions.assertEquals(0, controller.inFlight());
+    }
+
+    /**
+     * 订阅时才申请许可，排队中取消订阅就退出排队
+     */
+    @Test
+    public void testMono() {
+        final AdmissionController controller = new AdmissionController(1, 10, AdmissionController.Overflow.QUEUE);
+        final Sinks.One<String> upstream = Sinks.one();
+        final Mono<String> first = controller.mono(upstream::asMono);
+        Assertions.assertEquals(0, controller.inFlight());
+
+        final List<String> results = new ArrayList<>();
+        first.subscribe(results::add);
+        Assertions.assertEquals(1, controller.inFlight());
+        final Disposable queued = controller.mono(() -> Mono.just("b")).subscribe(results::add);
+        Assertions.assertEquals(1, controller.queueDepth());
+        queued.dispose();
+        Assertions.assertEquals(0, controller.queueDepth());
+
+        upstream.tryEmitValue("a");
+        Assertions.assertEquals(List.of("a"), results);
+        Assertions.assertEquals(0, controller.inFlight());
+    }
+
+    @Test
+    public void testVertx() {
+        final AdmissionController controller = new AdmissionController(1, 10, AdmissionController.Overflow.QUEUE);
+        final Promise<String> upstream = Promise.promise();
+        final Future<String> first = controller.vertx(upstream::future);
+        final Future<String> second = controller.vertx(() -> Future.succeededFuture("b"));
+        Assertions.assertFalse(second.isComplete());
+        upstream.complete("a");
+        Assertions.assertEquals("a", first.result());
+        Assertions.assertEquals("b", second.result());
+        Assertions.assertEquals(0, controller.inFlight());
+    }
+
+    @Test
+    public void testMyFuture() {
+        final AdmissionController controller = new AdmissionController(1, 10, AdmissionController.Overflow.QUEUE);
+        final MyCompletableFuture<String> upstream = MyCompletableFuture.newToComplete();
+        final MyCompletableFuture<String> first = controller.myFuture(() -> upstream);
+        final MyCompletableFuture<String> second = controller.myFuture(() -> MyCompletableFuture.newWithValue("b"));
+        Assertions.assertEquals(1, controller.queueDepth());
+        upstream.complete("a");
+        Assertions.assertEquals("a", first.block());
+        Assertions.assertEquals("b", second.block());
+        Assertions.assertEquals(0, controller.inFlight());
+    }
+
+    @Test
+    public void testMyFutureFailure() {
+        final AdmissionController controller = new AdmissionController(1, 0, AdmissionController.Overflow.REJECT);
+        final MyCompletableFuture<String> upstream = MyCompletableFuture.newToComplete();
+        final MyCompletableFuture<String> first = controller.myFuture(() -> upstream);
+        final MyCompletableFuture<String> rejected = controller.myFuture(() -> MyCompletableFuture.newWithValue("b"));
+        Assertions.assertThrows(RejectedExecutionException.class, rejected::block);
+        // 失败也要归还许可
+        upstream.completeExceptionally(new IllegalStateException("boom"));
+        Assertions.assertThrows(IllegalStateException.class, first::block);
+        Assertions.assertEquals(0, controller.inFlight());
+    }
+}
@@ -1,17 +1,18 @@
 package com.example.javaniodemo.demo
 
 import cn.hutool.core.thread.ThreadUtil
+import com.example.javaniodemo.nio.BufferPool
+import com.example.javaniodemo.nio.HttpRequestTemplate
 import kotlinx.coroutines.*
 import mu.KotlinLogging
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import java.net.InetSocketAddress
-import java.nio.ByteBuffer
 import java.nio.channels.AsynchronousChannelGroup
 import java.nio.channels.AsynchronousSocketChannel
 import java.nio.channels.CompletionHandler
-import java.nio.charset.StandardCharsets
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
@@ -60,19 +61,24 @@ class CoroutineNio2Demo : ApiRequestCoroutine<String> {
     override suspend fun apiRequest(): String {
         val channel = AsynchronousSocketChannel.open(client)
         // 第1层回调，建立连接
-        execAsync<Void?> { channel.connect(InetSocketAddress("localhost", 8080), Unit, it) }
-        val reqStr = "GET /delay5s HTTP/1.1\n\n"
-        val reqStrBytes = reqStr.toByteArray(StandardCharsets.UTF_8)
-        val outBuffer = ByteBuffer.wrap(reqStrBytes)
-        // 第2层回调，等待写完
-        val result = execAsync<Int> { channel.write(outBuffer, Unit, it) }
-        Assertions.assertEquals(reqStrBytes.size, result)
-        val buffer = ByteBuffer.allocate(256)
-        // 第3层回调，等待读完。这里代码处理的不严谨，半包、粘包等都没考虑
-        execAsync<Int> { channel.read(buffer, Unit, it) }
-        buffer.flip()
-        val bytes = ByteArray(buffer.remaining())
-        buffer[bytes]
+        execAsync<Void?> { channel.connect(SERVER, Unit, it) }
+        // 请求是预先编码好的，gathering write一次写出去
+        val request = REQUEST.request()
+        val requestLength = HttpRequestTemplate.remaining(request)
+        // 第2层回调，等待写完，0表示不设超时
+        val result = execAsync<Long> { channel.write(request, 0, request.size, 0, TimeUnit.MILLISECONDS, Unit, it) }
+        Assertions.assertEquals(requestLength, result)
+        // 读缓冲区从池里借堆外内存，用完还回去
+        val inBuffer = BufferPool.DEFAULT.acquire(256)
+        val bytes = try {
+            val buffer = inBuffer.buffer()
+            // 第3层回调，等待读完。这里代码处理的不严谨，半包、粘包等都没考虑
+            execAsync<Int> { channel.read(buffer, Unit, it) }
+            buffer.flip()
+            ByteArray(buffer.remaining()).also { buffer[it] }
+        } finally {
+            inBuffer.release()
+        }
         val responseStr = String(bytes)
         // log.info(responseStr);
         val split = responseStr.split("\r\n\r\n".toRegex(), 2).toTypedArray()
@@ -107,13 +113,37 @@ class CoroutineNio2Demo : ApiRequestCoroutine<String> {
             }.awaitAll()
             val end = System.currentTimeMillis()
             val duration = (end - start) / 1000
-            log.info("请求成功：$counter，耗时：$duration s")
+            log.info("请求成功：$counter，耗时：$duration s，缓冲池：${BufferPool.DEFAULT}")
         }
 
         // 阻塞主线程到运行结束，实际服务端项目中不应该出现这个
         runBlocking(block = block)
     }
+    /**
+     * 加上准入控制：最多50个请求在途，其余挂起排队，不阻塞线程
+     */
+    @Test
+    fun admissionTest(): Unit = runBlocking {
+        val admission = AdmissionController(50, 100, AdmissionController.Overflow.QUEUE)
+        val admitted = this@CoroutineNio2Demo.admittedBy(admission)
+        val counter = AtomicInteger(0)
+        val start = System.currentTimeMillis()
+        log.info("开始执行")
+        (1..100).map { i ->
+            async {
+                repeat(2) {
+                    require(admitted.apiRequest() == "hello")
+                    IoParallelUtil.countRequest(counter, i)
+                }
+            }
+        }.awaitAll()
+        val duration = (System.currentTimeMillis() - start) / 1000
+        log.info("请求成功：$counter，耗时：$duration s，准入控制：$admission")
+    }
+
     companion object{
         val log = KotlinLogging.logger {  }
+        val SERVER = InetSocketAddress("localhost", 8080)
+        val REQUEST = HttpRequestTemplate.get("/delay5s", SERVER)
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.example.javaniodemo.demo;
 
+import com.example.javaniodemo.nio.HttpRequestTemplate;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
@@ -7,8 +8,8 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -24,6 +25,13 @@ import static com.example.javaniodemo.demo.IoParallelUtil.countRequest;
  */
 @lombok.extern.slf4j.Slf4j
 public class JavaBioDemo implements ApiRequest<String> {
+
+    /**
+     * 流只能写byte[]，用模板编码一次之后缓存起来，每次请求直接写
+     */
+    static final byte[] REQUEST = HttpRequestTemplate.toByteArray(
+            HttpRequestTemplate.get("/delay5s", new InetSocketAddress("localhost", 8080)).request());
+
     @Test
     public void singleTest() {
         String result = apiRequest();
@@ -38,7 +46,7 @@ public class JavaBioDemo implements ApiRequest<String> {
                 final OutputStream outputStream = socket.getOutputStream();
         ) {
             // outputStream.write(("GET / HTTP/1.1\n\n").getBytes(StandardCharsets.UTF_8));
-            outputStream.write("GET /delay5s HTTP/1.1\n\n".getBytes(StandardCharsets.UTF_8));
+            outputStream.write(REQUEST);
             outputStream.flush();
             int length=-1;
             String line=" ";
@@ -1,5 +1,7 @@
 package com.example.javaniodemo.demo;
 
+import com.example.javaniodemo.nio.BufferPool;
+import com.example.javaniodemo.nio.HttpRequestTemplate;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,8 +11,8 @@ import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousChannelGroup;
 import java.nio.channels.AsynchronousSocketChannel;
 import java.nio.channels.CompletionHandler;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -21,10 +23,16 @@ import static com.example.javaniodemo.demo.IoParallelUtil.countRequest;
  * 直接使用java nio，不依赖任何外部库
  *
  * 返回CompletableFuture，调度逻辑同jdk11Http
+ *
+ * 请求用{@link HttpRequestTemplate}预先编码好，gathering write写出去；读缓冲区从{@link BufferPool}借堆外内存，请求结束时还回去
  */
 @lombok.extern.slf4j.Slf4j
 public class JavaNio2Demo implements ApiRequest<CompletableFuture<String>> {
 
+    static final InetSocketAddress SERVER = new InetSocketAddress("localhost", 8080);
+
+    static final HttpRequestTemplate REQUEST = HttpRequestTemplate.get("/delay5s", SERVER);
+
     AsynchronousChannelGroup client;
 
     @BeforeEach
@@ -52,18 +60,19 @@ public class JavaNio2Demo implements ApiRequest<CompletableFuture<String>> {
 
         try {
             final AsynchronousSocketChannel channel = AsynchronousSocketChannel.open(client);
-            channel.connect(new InetSocketAddress("localhost", 8080), null, new CompletionHandler<Void, Object>() {
+            channel.connect(SERVER, null, new CompletionHandler<Void, Object>() {
                 @Override
                 public void completed(Void result, Object attachment) {
-                    final String reqStr = "GET /delay5s HTTP/1.1\n\n";
-                    final byte[] reqStrBytes = reqStr.getBytes(StandardCharsets.UTF_8);
-                    final ByteBuffer outBuffer = ByteBuffer.wrap(reqStrBytes);
-                    channel.write(outBuffer, null, new CompletionHandler<Integer, Object>() {
+                    final ByteBuffer[] request = REQUEST.request();
+                    final long requestLength = HttpRequestTemplate.remaining(request);
+                    // 0表示不设超时
+                    channel.write(request, 0, request.length, 0, TimeUnit.MILLISECONDS, null, new CompletionHandler<Long, Object>() {
                         @Override
-                        public void completed(Integer result, Object attachment) {
+                        public void completed(Long result, Object attachment) {
                             // log.info("channel.write completed: " + result);
-                            Assertions.assertEquals(reqStrBytes.length, result);
-                            ByteBuffer buffer = ByteBuffer.allocate(256);
+                            Assertions.assertEquals(requestLength, result);
+                            final BufferPool.PooledBuffer inBuffer = BufferPool.DEFAULT.acquire(256);
+                            final ByteBuffer buffer = inBuffer.buffer();
                             // 这里代码处理的不严谨，半包、粘包等都没考虑
                             channel.read(buffer, null, new CompletionHandler<Integer, Object>() {
                                 @Override
@@ -73,6 +82,7 @@ public class JavaNio2Demo implements ApiRequest<CompletableFuture<String>> {
                                     buffer.flip();
                                     final byte[] bytes = new byte[buffer.remaining()];
                                     buffer.get(bytes);
+                                    inBuffer.release();
                                     final String responseStr = new String(bytes);
                                     // log.info(responseStr);
                                     final String[] split = responseStr.split("\r\n\r\n", 2);
@@ -97,6 +107,7 @@ public class JavaNio2Demo implements ApiRequest<CompletableFuture<String>> {
                                 @Override
                                 public void failed(Throwable exc, Object attachment) {
                                     log.info("channel.read failed");
+                                    inBuffer.release();
                                     exc.printStackTrace();
                                     resultFuture.completeExceptionally(exc);
                                 }
@@ -159,7 +170,7 @@ public class JavaNio2Demo implements ApiRequest<CompletableFuture<String>> {
                         .toArray(new CompletableFuture[]{}))
                 .whenComplete((unused, throwable) -> {
                     final long duration = (System.currentTimeMillis() - start) / 1000;
-                    log.info("请求成功：" + counter + "，耗时s：" + duration);
+                    log.info("请求成功：" + counter + "，耗时s：" + duration + "，缓冲池：" + BufferPool.DEFAULT);
                 });
 
         // 阻塞主线程到运行结束，实际服务端项目中不应该出现这个
@@ -1,16 +1,14 @@
 package com.example.javaniodemo.myfuture;
 
 import com.example.javaniodemo.demo.ApiRequest;
+import com.example.javaniodemo.nio.NioEventLoop;
+import com.example.javaniodemo.nio.NioEventLoopGroup;
+import com.example.javaniodemo.nio.NioHttpClient;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -21,11 +19,15 @@ import static com.example.javaniodemo.demo.IoParallelUtil.countRequest;
  * 直接使用java nio，不依赖任何外部库
  * <p>
  * 返回MyCompletableFuture，调度逻辑同jdk11Http
+ * <p>
+ * 事件循环、keep-alive连接池、响应解析都在{@link com.example.javaniodemo.nio}包里面，和JavaNioDemo共用
  */
 @lombok.extern.slf4j.Slf4j
 public class JavaNioWithMyFutureDemo implements ApiRequest<MyCompletableFuture<String>> {
 
-    Selector selector;
+    static final InetSocketAddress SERVER = new InetSocketAddress("localhost", 8080);
+
+    NioHttpClient client;
 
     @BeforeEach
     void setUp() throws Exception {
@@ -33,111 +35,18 @@ public class JavaNioWithMyFutureDemo implements ApiRequest<MyCompletableFuture<S
         System.setProperty("java.util.concurrent.ForkJoinPool.common.parallelism", "2");
         // client = singleThreadClient2();
 
-        selector = singleThreadClient();
+        client = singleThreadClient();
     }
 
     /**
-     *
-     *
-     * @return
-     * @throws Exception
+     * 只用一个事件循环，也就是单线程
+     * <p>
+     * 多核的话new NioEventLoopGroup()，默认每个核一个事件循环
      */
-    private Selector singleThreadClient() throws Exception {
-        final Selector selector = Selector.open();
-
-        // 手写事件循环
-        new Thread(() -> {
-            try {
-
-                AtomicInteger loopCount = new AtomicInteger();
-                // 这里有个很严重的问题，事件循环空转，不过这个是demo级的，就不处理了
-                while (true) {
-                    loopCount.incrementAndGet();
-                    log.info("loopCount: " + loopCount.get());
-                    selector.select(key -> {
-                        try {
-                            // log.info("loopCount: " + loopCount.get()+", key: "+key);
-                            final SelectorAttachment attachment = (SelectorAttachment) key.attachment();
-                            if(!key.isValid()){
-                                return;
-                            }
-                            if (key.isConnectable()) {
-                                // log.info("isConnectable  "+key);
-                                final SocketChannel channel = (SocketChannel) key.channel();
-                                // log.info(channel.isConnected());
-                                // log.info(channel.isConnectionPending());
-                                channel.finishConnect();
-                                // log.info(channel.isConnected());
-                                // log.info(channel.isConnectionPending());
-                                channel.register(selector, SelectionKey.OP_WRITE, attachment);
-                            }
-                            if(!key.isValid()){
-                                return;
-                            }
-                            if (key.isReadable()) {
-                                // log.info("read  "+key);
-                                final SocketChannel channel = (SocketChannel) key.channel();
-                                ByteBuffer buffer = ByteBuffer.allocate(256);
-                                channel.read(buffer);
-                                // log.info(buffer);
-                                buffer.flip();
-                                final byte[] bytes = new byte[buffer.remaining()];
-                                buffer.get(bytes);
-                                final String responseStr = new String(bytes);
-                                // log.info(responseStr);
-                                final String[] split = responseStr.split("\r\n\r\n", 2);
-                                String header = split[0];
-                                String body = split[1];
-                                final Integer bodySize = header.lines()
-                                        .filter(s -> s.startsWith("Content-Length:"))
-                                        .map(s -> s.split(":")[1].trim())
-                                        .map(s -> Integer.parseInt(s))
-                                        .findFirst()
-                                        .get();
-                                Assertions.assertEquals(bodySize, body.getBytes().length);
-                                try {
-                                    channel.close();
-                                    attachment.resultFuture.complete(body);
-                                } catch (Exception e) {
-                                    e.printStackTrace();
-                                    attachment.resultFuture.completeExceptionally(e);
-                                }
-                            }
-                            if(!key.isValid()){
-                                return;
-                            }
-                            if (key.isWritable()) {
-                                // log.info("write "+attachment.writeDone+" key"+key);
-                                if(!attachment.writeDone){
-                                    final SocketChannel channel = (SocketChannel) key.channel();
-                                    // final String reqStr = "GET / HTTP/1.1\n\n";
-                                    final String reqStr = "GET /delay5s HTTP/1.1\n\n";
-                                    final byte[] reqStrBytes = reqStr.getBytes(StandardCharsets.UTF_8);
-                                    final ByteBuffer outBuffer = ByteBuffer.wrap(reqStrBytes);
-                                    final SelectionKey readKey = channel.register(selector, SelectionKey.OP_READ, attachment);
-                                    // log.info("readkey  "+readKey);
-                                    // selector.wakeup();
-                                    final int write = channel.write(outBuffer);
-                                    attachment.writeDone = true;
-                                    // log.info("write"+write);
-                                }
-                            }
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            throw new RuntimeException(e);
-                        }
-                    });
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                throw new RuntimeException(e);
-            }
-        }).start();
-        return selector;
+    private NioHttpClient singleThreadClient() throws Exception {
+        return new NioHttpClient(new NioEventLoopGroup(1), SERVER);
     }
 
-
-
     @Test
     public void singleTest() throws Exception {
         final MyCompletableFuture<String> future = apiRequest()
@@ -149,27 +58,19 @@ public class JavaNioWithMyFutureDemo implements ApiRequest<MyCompletableFuture<S
         // Thread.sleep(6000);
     }
 
-    static class SelectorAttachment {
-        MyCompletableFuture<String> resultFuture =  MyCompletableFuture.newToComplete();
-        boolean writeDone = false;
-    }
-
     public MyCompletableFuture<String> apiRequest() {
-        final SelectorAttachment attachment = new SelectorAttachment();
-        try {
-            final SocketChannel channel = SocketChannel.open();
-            channel.configureBlocking(false);
-            // 一下子全部注册上去会导致循环空转，循环空转会导致单核cpu 100%
-            // reqChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT, attachment);
-            // 每走一步更新一下注册，可以解决循环空转问题
-            channel.register(selector, SelectionKey.OP_CONNECT, attachment);
-            channel.connect(new InetSocketAddress("localhost", 8080));
-            selector.wakeup();
-        } catch (Exception e) {
-            e.printStackTrace();
-            attachment.resultFuture.completeExceptionally(e);
-        }
-        return attachment.resultFuture;
+        final MyCompletableFuture<String> resultFuture = MyCompletableFuture.newToComplete();
+        // 回调在事件循环线程执行
+        final NioHttpClient.Cancellable request = client.get("/delay5s", (body, e) -> {
+            if (e != null) {
+                resultFuture.completeExceptionally(e);
+            } else {
+                resultFuture.complete(body);
+            }
+        });
+        // 调用链被取消或者超时的时候关掉连接，不再等响应
+        resultFuture.onCancel(request::cancel);
+        return resultFuture;
     }
 
 
@@ -205,7 +106,50 @@ public class JavaNioWithMyFutureDemo implements ApiRequest<MyCompletableFuture<S
                         .toArray(new MyCompletableFuture[]{}))
                 .whenComplete((unused, throwable) -> {
                     final long duration = (System.currentTimeMillis() - start) / 1000;
-                    log.info("请求成功：" + counter + "，耗时s：" + duration);
+                    log.info("请求成功：" + counter + "，耗时s：" + duration + "，新建连接数：" + client.group().connectCount());
+                });
+
+        // 阻塞主线程到运行结束，实际服务端项目中不应该出现这个
+        resultFuture.block();
+    }
+
+    /**
+     * 同multiTest，但是整条调用链绑定在NioHttpClient的事件循环上
+     * <p>
+     * 响应回调、complete、后续节点、下一个请求都在同一个事件循环线程上，
+     * 不经过MyCompletableFutureThread，每次io完成少一次线程切换和唤醒
+     */
+    @Test
+    public void eventLoopTest() throws Exception {
+        int parallelCount = 100;
+        int requestsPerParallel = 2;
+
+        final NioEventLoop loop = client.group().next();
+        final long wakeupsBefore = loop.wakeupCount();
+        AtomicInteger counter = new AtomicInteger(0);
+        long start = System.currentTimeMillis();
+        log.info("开始执行");
+
+        final MyCompletableFuture<Void> resultFuture = MyCompletableFuture.newAllOf(IntStream.rangeClosed(1, parallelCount)
+                        .boxed()
+                        .map(i -> {
+                            MyCompletableFuture<String> singleParallelFuture = MyCompletableFuture.newWithValue("").bindTo(loop);
+                            for (int j = 0; j < requestsPerParallel; j++) {
+                                singleParallelFuture = singleParallelFuture.thenCompose(s -> apiRequest()
+                                        .whenComplete((s1, throwable) -> {
+                                            Assertions.assertEquals("hello", s1);
+                                            countRequest(counter, i);
+                                        }));
+                            }
+                            return singleParallelFuture;
+                        })
+                        .collect(Collectors.toList())
+                        .toArray(new MyCompletableFuture[]{}))
+                .bindTo(loop)
+                .whenComplete((unused, throwable) -> {
+                    final long duration = (System.currentTimeMillis() - start) / 1000;
+                    log.info("请求成功：" + counter + "，耗时s：" + duration + "，新建连接数：" + client.group().connectCount()
+                            + "，唤醒事件循环次数：" + (loop.wakeupCount() - wakeupsBefore));
                 });
 
         // 阻塞主线程到运行结束，实际服务端项目中不应该出现这个
@@ -1,68 +1,152 @@
 package com.example.javaniodemo.myfuture;
 
 import cn.hutool.core.lang.Assert;
+import com.example.javaniodemo.nio.HashedTimingWheel;
+import com.example.javaniodemo.nio.MpscQueue;
+import com.example.javaniodemo.nio.NioEventLoop;
 import lombok.SneakyThrows;
-import org.jetbrains.annotations.Nullable;
 
+import java.time.Duration;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Objects;
-import java.util.PriorityQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
  * - 每一个操作符设置自己的调度逻辑
- * - 每一个操作符不改变上一个操作符，上一个操作符是可以复用的 todo 这个在当前逻辑不行
+ * - 每一个操作符不改变上一个操作符，上一个操作符是可以复用的：同一个future可以有多个订阅者，结果只算一次
  * - 每一个非触发操作符，产生新的future
+ * - 失败沿着调用链往下传，直到{@link #exceptionally}、{@link #handle}、{@link #whenComplete}；
+ * 取消沿着调用链往上传，上游只有这一个订阅者时一起取消，见{@link #cancel}
+ * - 多个future的组合见{@link #newAllOf}、{@link #newAllAsList}、{@link #newAnyOf}、{@link #newFirstN}、{@link #newRace}
  *
  * @param <T>
  */
-public class MyCompletableFuture<T> {
+public class MyCompletableFuture<T> extends Subscriber {
 
+    /*
+     * 节点的内存布局
+     * <p>
+     * 一次100×2的并发请求就有上千个节点，每个节点都要尽量小：
+     * - 完成状态和各种标记压在一个int里面，见{@link #state}
+     * - 异步节点的调度逻辑和同步节点的计算逻辑共用{@link #fn}，成功的结果和失败原因共用{@link #result}
+     * - 只有延时节点需要执行时间点，放在子类{@link DelayedFuture}里面
+     * - 不保存调用链头部，fire的时候沿着{@link #upstream}往上找；完成之后upstream、fn都清掉，不再拉住上游
+     * - 阻塞等待的线程挂在{@link #waiters}上，只有调用block的时候才创建
+     * <p>
+     * 压缩指针下对象头12字节，加上下面9个4字节的字段一共48字节，见MyCompletableFutureTest.testCompactLayout
+     */
+
+    /**
+     * 状态，低2位是完成状态：{@link #PENDING}、{@link #COMPLETING}、{@link #SUCCESS}、{@link #FAILED}，
+     * 只能从PENDING往后走一次，完成、失败、取消、超时谁先CAS成功算谁的；其余是标记位
+     * <p>
+     * 触发（{@link #SUBSCRIBED}）和完成可能在不同线程，都改同一个volatile字段，两边总有一边能看到对方，不会两边都不通知
+     */
+    private volatile int state;
+
+    private static final int PENDING = 0;
+    /**
+     * 抢到了完成权，正在写结果
+     */
+    private static final int COMPLETING = 1;
+    private static final int SUCCESS = 2;
+    private static final int FAILED = 3;
+    private static final int COMPLETION_MASK = 3;
+    /**
+     * 已经触发；还没触发的冷调用链完成时不通知订阅者
+     */
+    private static final int SUBSCRIBED = 1 << 2;
+    /**
+     * 同步节点，{@link #fn}是计算逻辑，见{@link #applySync}
+     */
+    private static final int SYNC = 1 << 3;
+    /**
+     * 同步节点要处理上游的失败；不处理的直接把失败传下去，不调用fn，失败多的时候没有额外开销
+     */
+    private static final int HANDLES_FAILURE = 1 << 4;
+    /**
+     * newToComplete产生的，complete之前触发了也不执行
+     */
+    private static final int AWAITING = 1 << 5;
+
+    /**
+     * 异步节点是非阻塞执行、调度逻辑的Runnable；同步节点是BiFunction，参数是上一个节点的结果和失败原因
+     * <p>
+     * 同步节点不进队列，上一个节点在哪个线程完成就在哪个线程直接算，见{@link #propagate}
+     */
+    private Object fn;
 
     /**
-     * 非阻塞执行、调度逻辑
+     * 执行结果，失败时是失败原因，由状态区分
      */
-    private Runnable runnable;
+    private Object result;
 
     /**
-     * 定时器
+     * 订阅者栈的栈顶，其他订阅者通过{@link Subscriber#sibling}串起来
      * <p>
-     * 延时任务的执行时间点
+     * 只有一个订阅者的时候就是下一个节点，不需要额外的对象；完成并通知过订阅者之后换成{@link #COMPLETED}
      */
-    private long triggerTime = 0;
+    private volatile Subscriber next = null;
 
     /**
-     * 执行结果
+     * 上一个节点，调用链头部为null；fire的时候沿着它找头部，取消的时候沿着它往上走；
+     * thenCompose的回调返回之后换成回调里面的调用链
      */
-    private T result;
+    private MyCompletableFuture<?> upstream = null;
 
     /**
-     * 成功状态
+     * 取消时执行的钩子，比如关掉底层的连接
      */
-    private Boolean success = null;
+    private Runnable onCancel = null;
 
     /**
-     * 下一个节点
+     * 阻塞等待的线程栈，见{@link #block}；完成时整个取下来逐个unpark
      */
-    private MyCompletableFuture<?> next = null;
+    private volatile Waiter waiters = null;
+
+    private static final AtomicIntegerFieldUpdater<MyCompletableFuture> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(MyCompletableFuture.class, "state");
+
+    private static final AtomicReferenceFieldUpdater<MyCompletableFuture, Subscriber> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(MyCompletableFuture.class, Subscriber.class, "next");
+
+    private static final AtomicReferenceFieldUpdater<MyCompletableFuture, Waiter> WAITERS =
+            AtomicReferenceFieldUpdater.newUpdater(MyCompletableFuture.class, Waiter.class, "waiters");
 
     /**
-     * 调用链头部
+     * 订阅者栈的终态：已经完成并且通知过订阅者，之后来的订阅者直接执行
      */
-    private MyCompletableFuture<?> head = null;
+    private static final MyCompletableFuture<Object> COMPLETED = new MyCompletableFuture<>();
 
     /**
-     * 锁，调用future阻塞等待用的
+     * 预先分配、不带调用栈的异常：大量请求一起取消、超时的时候不用每个都new一个再填一遍调用栈
      */
-    private MyLatch blockLatch = new MyLatch();
+    private static final CancellationException CANCELLED = stackless(new CancellationException("cancelled"));
+    private static final TimeoutException TIMEOUT = stackless(new TimeoutException("timeout"));
+
     /**
-     * 并行计数器
-     * <p>
-     * 只在allOf里面用着了
+     * 所在的运行时，调用链头部创建时选定，沿着链传下去
      */
-    private int counter = 0;
+    private FutureRuntime runtime;
+
+    /**
+     * 运行时线程上连续内联执行的最大深度，超过了就进队列，回到事件循环再往下走，避免栈溢出
+     */
+    private static final int MAX_INLINE_DEPTH = 16;
 
     /**
      * 外面不能直接new
@@ -71,23 +155,161 @@ public class MyCompletableFuture<T> {
     }
 
     /**
-     * 完成这个future
+     * 延时节点，只有它需要执行时间点，普通节点不用带着这8个字节
+     */
+    private static class DelayedFuture<T> extends MyCompletableFuture<T> {
+
+        /**
+         * 执行时间点
+         */
+        private final long triggerTime;
+
+        private DelayedFuture(long triggerTime) {
+            this.triggerTime = triggerTime;
+        }
+    }
+
+    /**
+     * {@link #orTimeout}、{@link #completeOnTimeout}的定时器，多记一个时间轮句柄
+     * <p>
+     * 被计时的节点先完成（绝大多数情况）时停掉定时器，把它从时间轮上摘掉；不然定时器连同它拉住的超时节点、结果、下游
+     * 要在时间轮上挂满整个超时时长，请求量大、超时长的时候内存里同时挂着请求速率×超时时长条调用链
+     * <p>
+     * 同时也是超时节点被下游取消时的钩子
+     */
+    private static final class TimeoutTimer extends DelayedFuture<Void> implements Runnable {
+
+        /**
+         * 挂在时间轮上的句柄，只在运行时线程读写，见{@link MyFutureRuntime#runOrSchedule}
+         */
+        private HashedTimingWheel.Timeout handle;
+
+        private TimeoutTimer(long triggerTime) {
+            super(triggerTime);
+        }
+
+        /**
+         * 停掉定时器，任何线程都可以调用；已经触发过的什么都不做
+         * <p>
+         * 先把自己取消，放掉拉住的超时节点；时间轮只能在运行时线程上动，再提交一次，由运行时摘掉
+         */
+        @Override
+        public void run() {
+            final MyCompletableFuture<?> node = this;
+            if (node.cancelThis()) {
+                node.runtime.addTask(this);
+            }
+        }
+    }
+
+    /**
+     * 还要多久才能执行，不是延时节点的返回0
+     */
+    private static long remainingDelay(MyCompletableFuture<?> task) {
+        return task instanceof DelayedFuture ? ((DelayedFuture<?>) task).triggerTime - System.currentTimeMillis() : 0;
+    }
+
+    /**
+     * 完成这个future，已经完成、失败或者取消的不再改变
      * @param result
      */
     public void complete(T result) {
-        if (!this.isCompleted){
-            this.isCompleted = true;
-            this.setSuccess(result);
-        }
+        this.finish(result, null);
     }
 
     /**
-     * 暂时不做异常处理
+     * 以失败完成这个future，失败沿着调用链往下传
      *
      * @param e
      */
-    public void completeExceptionally(Exception e) {
-        throw new RuntimeException(e);
+    public void completeExceptionally(Throwable e) {
+        Assert.notNull(e);
+        this.finish(null, e);
+    }
+
+    /**
+     * 取消，下游以CancellationException失败
+     * <p>
+     * 上游只有这一个订阅者的也一起取消，一直走到调用链头部，途中的{@link #onCancel}钩子都会执行，
+     * 比如关掉还在等响应的连接；有别的订阅者的上游不动
+     *
+     * @return 是否是这次调用取消的，已经完成的返回false
+     */
+    public boolean cancel() {
+        final MyCompletableFuture<?> up = this.upstream;
+        if (!cancelThis()) {
+            return false;
+        }
+        cancelUpstream(this, up);
+        return true;
+    }
+
+    /**
+     * 取消时执行的钩子，已经取消了的马上执行；钩子可能被执行多次，要能重复调用
+     */
+    public MyCompletableFuture<T> onCancel(Runnable hook) {
+        this.onCancel = hook;
+        if (isCancelled()) {
+            hook.run();
+        }
+        return this;
+    }
+
+    /**
+     * 只取消这一个节点；还没执行的逻辑不再执行，之后被推进事件循环时只把取消传下去，见{@link MyFutureRuntime#run}
+     */
+    private boolean cancelThis() {
+        if (!tryComplete(null, CANCELLED, 0)) {
+            return false;
+        }
+        final Runnable hook = onCancel;
+        if (hook != null) {
+            hook.run();
+        }
+        propagate(this);
+        return true;
+    }
+
+    /**
+     * 沿着调用链往上取消，用循环不用递归，长调用链不会栈溢出
+     * <p>
+     * 完成的节点会清掉upstream，所以由调用方在完成之前先取出来
+     */
+    private static void cancelUpstream(MyCompletableFuture<?> child, MyCompletableFuture<?> up) {
+        while (up != null && up.hasOnlySubscriber(child)) {
+            final MyCompletableFuture<?> next = up.upstream;
+            if (!up.cancelThis()) {
+                return;
+            }
+            child = up;
+            up = next;
+        }
+    }
+
+    /**
+     * 除了child之外没有别的还在等结果的订阅者；已经通知过订阅者的说明已经完成，不用再取消
+     */
+    private boolean hasOnlySubscriber(MyCompletableFuture<?> child) {
+        for (Subscriber subscriber = this.next; subscriber != null; subscriber = subscriber.sibling) {
+            if (subscriber == COMPLETED || (subscriber != child && !subscriber.isDone())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 阻塞在某个future上的线程
+     */
+    private static final class Waiter {
+
+        private final Thread thread;
+
+        private Waiter next;
+
+        private Waiter(Thread thread) {
+            this.thread = thread;
+        }
     }
 
     /**
@@ -119,131 +341,461 @@ public class MyCompletableFuture<T> {
         }
     }
 
+    /**
+     * 执行future的线程
+     * <p>
+     * 默认是{@link MyFutureRuntime}，也可以用{@link #bindTo}绑定到nio事件循环上
+     */
+    private abstract static class FutureRuntime {
+
+        /**
+         * 当前在运行时线程上嵌套内联执行的深度，只在运行时线程读写，见{@link #toLoop}
+         */
+        int inlineDepth;
+
+        /**
+         * 任何线程都可以调用，在运行时线程上执行这个future；带延时的到时间再执行
+         */
+        abstract void addTask(MyCompletableFuture<?> task);
+
+        /**
+         * 当前线程是不是这个运行时的线程
+         */
+        abstract boolean inRuntime();
+    }
+
+    /**
+     * 绑定在nio事件循环上的运行时
+     * <p>
+     * 就绪任务进事件循环的任务队列，延时任务进事件循环的时间轮，和channel的就绪事件在同一个select(timeout)里面等；
+     * 在事件循环线程上完成的future，后续节点还是在这个线程执行，不用切换线程，也不用唤醒
+     */
+    private static final class EventLoopRuntime extends FutureRuntime {
+
+        /**
+         * 每个事件循环一个
+         */
+        private static final Map<NioEventLoop, EventLoopRuntime> RUNTIMES = new ConcurrentHashMap<>();
+
+        private final NioEventLoop loop;
+
+        private EventLoopRuntime(NioEventLoop loop) {
+            this.loop = loop;
+            // 在事件循环线程上新建的future默认留在这个事件循环
+            loop.execute(() -> MyFutureRuntime.CURRENT.set(this));
+        }
+
+        private static EventLoopRuntime of(NioEventLoop loop) {
+            return RUNTIMES.computeIfAbsent(loop, EventLoopRuntime::new);
+        }
+
+        @Override
+        void addTask(MyCompletableFuture<?> task) {
+            loop.execute(() -> MyFutureRuntime.runOrSchedule(loop.timer(), task));
+        }
+
+        @Override
+        boolean inRuntime() {
+            return loop.inEventLoop();
+        }
+    }
+
     /**
      * 运行时
+     * <p>
+     * 就绪的任务和延时任务分开放：
+     * - 就绪队列是无锁的多生产者单消费者队列，任何线程提交任务都不加锁
+     * - 延时任务交给时间轮，只在调度线程里面访问，不用加锁；添加O(1)，精度1ms
+     * <p>
+     * 其他线程提交的任务不管延不延时都先进就绪队列，由调度线程判断要不要放进时间轮
+     * <p>
+     * 运行时个数由系统属性myfuture.runtimes决定，默认1个。多个运行时的时候，每条调用链创建时选定一个运行时，
+     * 之后链上的节点、回调里面新建的future都在这个运行时上执行，allOf的各个子future可以分散到不同的核上
      */
-    private static class MyFutureRuntime {
+    private static class MyFutureRuntime extends FutureRuntime {
+
+        /**
+         * 轮流分配运行时的计数
+         */
+        private static final AtomicInteger NEXT = new AtomicInteger();
 
         /**
-         * 实例
+         * 当前线程所属的运行时，包括绑定过的nio事件循环线程；其他线程为null
          */
-        private static final MyFutureRuntime INSTANCE = new MyFutureRuntime();
+        private static final ThreadLocal<FutureRuntime> CURRENT = new ThreadLocal<>();
+
+        /**
+         * 全部运行时
+         */
+        private static final MyFutureRuntime[] RUNTIMES = create(Integer.getInteger("myfuture.runtimes", 1));
 
         /**
          * 调度线程
          */
-        private final Thread runtime = new Thread(this::loop, "MyCompletableFutureThread");
+        private final Thread runtime;
 
         /**
-         * 循环线程阻塞等待锁
+         * 就绪队列
          */
-        private final MyLatch loopLatch = new MyLatch();
+        private final MpscQueue<MyCompletableFuture<?>> queue = new MpscQueue<>();
 
         /**
-         * 优先级队列
-         *
-         * 不引用并发包的队列，维持该类的纯净
-         *
-         * 除了add外，其他操作应该是严格的单线程，不需要加锁，有并发问题再说
+         * 调度线程已经或者马上要park
+         * <p>
+         * 提交任务的线程看到这个标记、并且抢到清除它的时候才unpark，调度线程忙的时候提交任务没有额外开销
+         */
+        private final AtomicBoolean parked = new AtomicBoolean();
+
+        /**
+         * 延时任务，只在调度线程访问
          */
-        private final PriorityQueue<MyCompletableFuture<?>> queue = new PriorityQueue<>(Comparator.comparing(f -> f.triggerTime));
+        private final HashedTimingWheel timer = new HashedTimingWheel(1, 1024);
 
         /**
          * 构造器
          *
          * 同时启动调度线程
          */
-        private MyFutureRuntime() {
+        private MyFutureRuntime(String name) {
+            runtime = new Thread(this::loop, name);
             runtime.start();
         }
 
+        private static MyFutureRuntime[] create(int count) {
+            Assert.isTrue(count > 0, "myfuture.runtimes必须大于0");
+            final MyFutureRuntime[] runtimes = new MyFutureRuntime[count];
+            for (int i = 0; i < count; i++) {
+                runtimes[i] = new MyFutureRuntime(count == 1 ? "MyCompletableFutureThread" : "MyCompletableFutureThread-" + i);
+            }
+            return runtimes;
+        }
+
+        /**
+         * 给新的调用链选运行时
+         * <p>
+         * 在调度线程里面创建的留在当前运行时，其他线程创建的轮流分配
+         */
+        private static FutureRuntime choose() {
+            final FutureRuntime current = CURRENT.get();
+            if (current != null) {
+                return current;
+            }
+            if (RUNTIMES.length == 1) {
+                return RUNTIMES[0];
+            }
+            return RUNTIMES[Math.floorMod(NEXT.getAndIncrement(), RUNTIMES.length)];
+        }
+
         /**
          * 事件循环
          */
-        @SneakyThrows
         private void loop() {
+            CURRENT.set(this);
             while (true) {
-                blockThreadToWait();
-                while (!isEmpty() && getDelay()<=0) {
-                    try {
-                        Objects.requireNonNull(poll()).runnable.run();
-                    } catch (Exception e) {
-                        // 暂时不处理异常
-                        e.printStackTrace();
-                    }
+                MyCompletableFuture<?> task;
+                while ((task = queue.poll()) != null) {
+                    runOrSchedule(timer, task);
                 }
+                timer.advance();
+                parkIfIdle();
             }
         }
 
-        @Nullable
-        private synchronized MyCompletableFuture<?> poll() {
-            return queue.poll();
-        }
-
         /**
-         * 避免cpu空转
-         *
-         * @throws InterruptedException
+         * 在运行时线程上处理提交过来的任务：延时没到的挂到时间轮上，否则直接执行
+         * <p>
+         * 超时定时器停掉的时候会再提交一次，这时候它已经取消了，有句柄的从时间轮上摘掉，见{@link TimeoutTimer#run}
          */
-        private void blockThreadToWait() throws InterruptedException {
-            // loopLatch = new CountDownLatch(1);
-            if (isEmpty()) {
-                loopLatch.block();
-            } else {
-                final long delay = getDelay();
-                if (delay > 0) {
-                    loopLatch.block(delay);
+        private static void runOrSchedule(HashedTimingWheel wheel, MyCompletableFuture<?> task) {
+            if (task instanceof TimeoutTimer && task.isDone()) {
+                final TimeoutTimer timer = (TimeoutTimer) task;
+                if (timer.handle != null) {
+                    timer.handle.cancel();
+                    timer.handle = null;
                 }
+                return;
+            }
+            final long delay = remainingDelay(task);
+            if (delay <= 0) {
+                run(task);
+                return;
+            }
+            final HashedTimingWheel.Timeout handle = wheel.schedule(() -> run(task), delay);
+            if (task instanceof TimeoutTimer) {
+                ((TimeoutTimer) task).handle = handle;
             }
         }
 
         /**
-         * 不加这几个同步会遇到并发问题
+         * 执行节点的逻辑，抛出的异常作为这个节点的失败往下传
+         * <p>
+         * 已经有结果的（newWithValue、先complete再fire的、被取消或者超时的）只通知订阅者
          */
-        private synchronized boolean isEmpty(){
-            return queue.isEmpty();
+        private static void run(MyCompletableFuture<?> task) {
+            // 先读fn，完成之后propagate会清掉它
+            final Runnable fn = (Runnable) task.fn;
+            if (fn == null || task.isDone()) {
+                propagate(task);
+                return;
+            }
+            try {
+                fn.run();
+            } catch (Throwable e) {
+                if (!task.finish(null, e)) {
+                    // 已经完成之后才抛的，没有下游可以接收了
+                    e.printStackTrace();
+                }
+            }
         }
+
         /**
-         * 不加这几个同步会遇到并发问题
+         * 避免cpu空转
+         * <p>
+         * 先立标记再检查队列；提交任务的线程先入队再看标记，两边至少有一边能看到对方，不会漏掉唤醒
          */
-        private synchronized long getDelay(){
-            if (queue.isEmpty()){
-                return 1;
+        private void parkIfIdle() {
+            parked.set(true);
+            if (!queue.isEmpty()) {
+                parked.set(false);
+                return;
             }
-            return queue.peek().triggerTime - System.currentTimeMillis();
+            final long delay = timer.millisToNextTick();
+            if (delay < 0) {
+                LockSupport.park(this);
+            } else if (delay > 0) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+            }
+            parked.set(false);
         }
 
         /**
          * 添加任务
          * <p>
-         * 有可能是非调度线程在调用这个方法，所以每次添加完通知调度线程该循环了
+         * 有可能是非调度线程在调用这个方法，调度线程park了才需要唤醒
          */
-        private synchronized void addTask(MyCompletableFuture<?> task) {
-            queue.add(task);
-            loopLatch.unblock();
+        @Override
+        void addTask(MyCompletableFuture<?> task) {
+            queue.offer(task);
+            if (parked.get() && parked.compareAndSet(true, false)) {
+                LockSupport.unpark(runtime);
+            }
+        }
+
+        @Override
+        boolean inRuntime() {
+            return Thread.currentThread() == runtime;
         }
     }
 
 
     /**
-     * 并行执行全部，全部成功后返回
+     * 组合多个子future的状态
+     * <p>
+     * 不给每个子future包一层whenComplete，而是在子future的订阅者栈上压一个{@link Member}；
+     * 子future可能在运行时线程、selector线程、netty线程上完成，计数都是原子操作；
+     * 成功的结果写进预先分配好的数组，凑够了或者确定凑不够了马上完成，
+     * 之后还没完成的子future，除了这个组合没有别的订阅者的，一起取消
+     */
+    private static final class Combinator<R> {
+
+        /**
+         * 只要第一个完成的，成功失败都算
+         */
+        private static final int RACE = -1;
+
+        private static final AtomicIntegerFieldUpdater<Combinator> CLAIMED =
+                AtomicIntegerFieldUpdater.newUpdater(Combinator.class, "claimed");
+        private static final AtomicIntegerFieldUpdater<Combinator> FILLED =
+                AtomicIntegerFieldUpdater.newUpdater(Combinator.class, "filled");
+        private static final AtomicIntegerFieldUpdater<Combinator> FAILURES =
+                AtomicIntegerFieldUpdater.newUpdater(Combinator.class, "failures");
+
+        private final MyCompletableFuture<R> future = new MyCompletableFuture<>();
+
+        private final MyCompletableFuture<?>[] children;
+
+        /**
+         * 需要几个成功的，{@link #RACE}表示第一个完成的不管成功失败
+         */
+        private final int needed;
+
+        /**
+         * 成功的结果，null表示不需要结果
+         */
+        private final Object[] values;
+
+        /**
+         * true按子future的下标存结果，false按完成的先后顺序存
+         */
+        private final boolean byIndex;
+
+        /**
+         * 凑够之后把结果数组转成最终结果
+         */
+        private final Function<Object[], R> collector;
+
+        /**
+         * 按完成顺序存结果时，已经分出去的下标
+         */
+        private volatile int claimed;
+
+        /**
+         * 已经写好的成功结果个数
+         */
+        private volatile int filled;
+
+        private volatile int failures;
+
+        private Combinator(MyCompletableFuture<?>[] children, int needed, Object[] values, boolean byIndex,
+                           Function<Object[], R> collector) {
+            this.children = children;
+            this.needed = needed;
+            this.values = values;
+            this.byIndex = byIndex;
+            this.collector = collector;
+            future.fn = (Runnable) this::subscribeAll;
+            future.onCancel = this::cancelPending;
+            future.runtime = MyFutureRuntime.choose();
+        }
+
+        /**
+         * 在每个子future上压一个成员并触发；已经有结果的话后面的不再触发
+         */
+        private void subscribeAll() {
+            if (children.length == 0) {
+                settle(collector.apply(values), null);
+                return;
+            }
+            for (int i = 0; i < children.length && !future.isDone(); i++) {
+                final MyCompletableFuture<?> child = children[i];
+                if (!child.push(new Member(this, i))) {
+                    onChildDone(i, child);
+                }
+                child.fire();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void onChildDone(int index, MyCompletableFuture<?> child) {
+            if (future.isDone()) {
+                return;
+            }
+            final Throwable e = child.failure();
+            if (needed == RACE) {
+                settle((R) child.value(), e);
+                return;
+            }
+            if (e != null) {
+                // 剩下的全成功也凑不够了
+                if (FAILURES.incrementAndGet(this) > children.length - needed) {
+                    settle(null, e);
+                }
+                return;
+            }
+            int slot = index;
+            if (!byIndex) {
+                slot = CLAIMED.getAndIncrement(this);
+                if (slot >= needed) {
+                    return;
+                }
+            }
+            if (values != null) {
+                values[slot] = child.value();
+            }
+            // 先写结果再计数，最后一个计数的线程能看到全部结果
+            if (FILLED.incrementAndGet(this) == needed) {
+                settle(collector.apply(values), null);
+            }
+        }
+
+        /**
+         * 先取消输掉的再通知下游，下游拿到结果的时候输掉的已经停了
+         */
+        private void settle(R result, Throwable e) {
+            if (future.tryComplete(result, e)) {
+                cancelPending();
+                propagate(future);
+            }
+        }
+
+        /**
+         * 取消还没完成、而且没有别的订阅者的子future
+         */
+        private void cancelPending() {
+            for (MyCompletableFuture<?> child : children) {
+                if (!child.isDone() && child.hasOnlySubscriber(null)) {
+                    child.cancel();
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <U> List<U> asList(Object[] values) {
+            return (List<U>) Arrays.asList(values);
+        }
+    }
+
+    /**
+     * 组合在某个子future上的订阅者
+     */
+    private static final class Member extends Subscriber {
+        private final Combinator<?> combinator;
+        private final int index;
+
+        private Member(Combinator<?> combinator, int index) {
+            this.combinator = combinator;
+            this.index = index;
+        }
+
+        @Override
+        boolean isDone() {
+            return combinator.future.isDone();
+        }
+    }
+
+    /**
+     * 并行执行全部，全部成功后返回；任意一个失败马上以这个失败完成，不再等其他的
+     * <p>
+     * 提前失败或者取消时，还没完成的子future没有别的订阅者的一起取消
      */
     public static MyCompletableFuture<Void> newAllOf(MyCompletableFuture<?>... cfs) {
-        final MyCompletableFuture<Void> allFuture = new MyCompletableFuture<>();
-        allFuture.counter = cfs.length;
-        allFuture.runnable = () -> {
-            Arrays.stream(cfs).forEach(childFuture -> {
-                childFuture.whenComplete((n, e) -> {
-                    allFuture.counter--;
-                    if (allFuture.counter <= 0) {
-                        allFuture.setSuccess(null);
-                    }
-                });
-                childFuture.fire();
-            });
-        };
-        allFuture.head = allFuture;
-        return allFuture;
+        return new Combinator<Void>(cfs, cfs.length, null, true, values -> null).future;
+    }
+
+    /**
+     * 同{@link #newAllOf}，结果按参数顺序放在列表里
+     */
+    @SafeVarargs
+    public static <U> MyCompletableFuture<List<U>> newAllAsList(MyCompletableFuture<? extends U>... cfs) {
+        return new Combinator<List<U>>(cfs, cfs.length, new Object[cfs.length], true, Combinator::asList).future;
+    }
+
+    /**
+     * 第一个成功的结果；全部失败时以最后一个失败完成
+     */
+    @SafeVarargs
+    @SuppressWarnings("unchecked")
+    public static <U> MyCompletableFuture<U> newAnyOf(MyCompletableFuture<? extends U>... cfs) {
+        Assert.isTrue(cfs.length > 0);
+        return new Combinator<U>(cfs, 1, new Object[1], false, values -> (U) values[0]).future;
+    }
+
+    /**
+     * 最先成功的n个结果，按完成顺序；失败多到凑不够n个时马上失败
+     */
+    @SafeVarargs
+    public static <U> MyCompletableFuture<List<U>> newFirstN(int n, MyCompletableFuture<? extends U>... cfs) {
+        Assert.isTrue(n > 0 && n <= cfs.length);
+        return new Combinator<List<U>>(cfs, n, new Object[n], false, Combinator::asList).future;
+    }
+
+    /**
+     * 第一个完成的，成功失败都算
+     */
+    @SafeVarargs
+    public static <U> MyCompletableFuture<U> newRace(MyCompletableFuture<? extends U>... cfs) {
+        Assert.isTrue(cfs.length > 0);
+        return new Combinator<U>(cfs, Combinator.RACE, null, false, null).future;
     }
 
     /**
@@ -253,37 +805,40 @@ public class MyCompletableFuture<T> {
      */
     public static <U> MyCompletableFuture<U> newWithValue(U value) {
         final MyCompletableFuture<U> future = new MyCompletableFuture<>();
-        future.success = true;
+        future.state = SUCCESS;
         future.result = value;
-        future.runnable = () -> {
-            future.setSuccess(value);
-        };
-        future.head = future;
+        future.runtime = MyFutureRuntime.choose();
         return future;
     }
 
+    /**
+     * 由外部调用{@link #complete}的future，先complete再fire的时候把结果通知给订阅者
+     */
     public static <U> MyCompletableFuture<U> newToComplete() {
         final MyCompletableFuture<U> future = new MyCompletableFuture<>();
-        future.isCompleted = false;
-        // future.success = true;
-        future.runnable = () -> {
-            // future.setSuccess(value);
-        };
-        future.head = future;
+        future.state = AWAITING;
+        future.runtime = MyFutureRuntime.choose();
         return future;
     }
 
 
     /**
      * 典型的异步回调
+     * <p>
+     * 上游失败时不调用fn，直接失败；取消时连同回调返回的调用链一起取消
      */
     public <U> MyCompletableFuture<U> thenCompose(Function<? super T, ? extends MyCompletableFuture<U>> fn) {
         final MyCompletableFuture<U> nextFuture = new MyCompletableFuture<>();
-        nextFuture.runnable = () -> {
-            final MyCompletableFuture<U> callbackFuture = fn.apply(this.result);
-            callbackFuture.whenComplete((u, e) -> {
-                nextFuture.setSuccess(u);
-            });
+        nextFuture.fn = (Runnable) () -> {
+            if (this.isCompletedExceptionally()) {
+                nextFuture.finish(null, this.failure());
+                return;
+            }
+            final MyCompletableFuture<U> callbackFuture = fn.apply(this.value());
+            final MyCompletableFuture<U> inner = callbackFuture.whenComplete(nextFuture::finish);
+            if (!nextFuture.isDone()) {
+                nextFuture.upstream = inner;
+            }
             callbackFuture.fire();
         };
         setNext(nextFuture);
@@ -291,37 +846,184 @@ public class MyCompletableFuture<T> {
     }
 
     /**
-     * 类似执行完成后置事件
+     * 类似执行完成后置事件，成功失败都会执行，结果原样往下传
      */
     public MyCompletableFuture<T> whenComplete(BiConsumer<? super T, ? super Throwable> action) {
         final MyCompletableFuture<T> nextFuture = new MyCompletableFuture<>();
-        nextFuture.runnable = () -> {
-            action.accept(this.result, null);
-            nextFuture.setSuccess(this.result);
+        nextFuture.fn = (Runnable) () -> {
+            final T value = this.value();
+            final Throwable e = this.failure();
+            action.accept(value, e);
+            nextFuture.finish(value, e);
         };
         setNext(nextFuture);
         return nextFuture;
     }
 
     /**
-     * 设置下一个执行的future
+     * 同步转换，不进队列，在上一个节点完成的线程里面直接执行
+     * <p>
+     * 只适合很轻的计算，阻塞或者耗时的逻辑会卡住完成它的线程，可能是io线程；上游失败时不调用fn，直接失败
+     */
+    @SuppressWarnings("unchecked")
+    public <U> MyCompletableFuture<U> thenApply(Function<? super T, ? extends U> fn) {
+        final MyCompletableFuture<U> nextFuture = new MyCompletableFuture<>();
+        nextFuture.state = SYNC;
+        nextFuture.fn = (BiFunction<Object, Throwable, Object>) (value, e) -> fn.apply((T) value);
+        setNext(nextFuture);
+        return nextFuture;
+    }
+
+    /**
+     * 同步消费，同{@link #thenApply}
+     */
+    public MyCompletableFuture<Void> thenAccept(Consumer<? super T> action) {
+        return thenApply(t -> {
+            action.accept(t);
+            return null;
+        });
+    }
+
+    /**
+     * 失败时用fn的返回值代替，成功的原样往下传；同步执行，同{@link #thenApply}
+     */
+    public MyCompletableFuture<T> exceptionally(Function<Throwable, ? extends T> fn) {
+        final MyCompletableFuture<T> nextFuture = new MyCompletableFuture<>();
+        nextFuture.state = SYNC | HANDLES_FAILURE;
+        nextFuture.fn = (BiFunction<Object, Throwable, Object>) (value, e) -> e == null ? value : fn.apply(e);
+        setNext(nextFuture);
+        return nextFuture;
+    }
+
+    /**
+     * 成功失败都转换成新的结果，失败时value为null；同步执行，同{@link #thenApply}
+     */
+    @SuppressWarnings("unchecked")
+    public <U> MyCompletableFuture<U> handle(BiFunction<? super T, Throwable, ? extends U> fn) {
+        final MyCompletableFuture<U> nextFuture = new MyCompletableFuture<>();
+        nextFuture.state = SYNC | HANDLES_FAILURE;
+        nextFuture.fn = (BiFunction<Object, Throwable, Object>) (value, e) -> fn.apply((T) value, e);
+        setNext(nextFuture);
+        return nextFuture;
+    }
+
+    /**
+     * 超过timeoutMillis还没完成的，以TimeoutException失败，并取消上游，见{@link #cancel}
+     * <p>
+     * 和delay一样，从调用这个方法开始计时；定时器挂在所在运行时的时间轮上，不额外占线程
+     */
+    public MyCompletableFuture<T> orTimeout(long timeoutMillis) {
+        return withTimeout(timeoutMillis, null, TIMEOUT);
+    }
+
+    /**
+     * 超过timeoutMillis还没完成的，以value完成，并取消上游；同{@link #orTimeout}
+     */
+    public MyCompletableFuture<T> completeOnTimeout(T value, long timeoutMillis) {
+        return withTimeout(timeoutMillis, value, null);
+    }
+
+    /**
+     * 接一个原样往下传的同步节点，再起一个定时器节点，谁先到算谁的
      * <p>
-     * 同时传递头部
+     * 上游先完成的话，同步节点往下传的同时停掉定时器；超时节点被下游取消的也一样
+     */
+    private MyCompletableFuture<T> withTimeout(long timeoutMillis, T value, Throwable failure) {
+        Assert.isTrue(timeoutMillis > 0);
+        final MyCompletableFuture<Void> timer = new TimeoutTimer(timeoutMillis + System.currentTimeMillis());
+        final Runnable stopTimer = (Runnable) timer;
+        timer.runtime = this.runtime;
+        final MyCompletableFuture<T> timeoutFuture = new MyCompletableFuture<>();
+        // 失败也要经过fn才能停掉定时器，原样再抛出去
+        timeoutFuture.state = SYNC | HANDLES_FAILURE;
+        timeoutFuture.fn = (BiFunction<Object, Throwable, Object>) (v, e) -> {
+            stopTimer.run();
+            return e == null ? v : rethrow(e);
+        };
+        timeoutFuture.onCancel = stopTimer;
+
+        timer.fn = (Runnable) () -> {
+            final MyCompletableFuture<?> up = timeoutFuture.upstream;
+            // 超时之后冷调用链才触发的，也要能通知到下游
+            if (timeoutFuture.tryComplete(value, failure, SUBSCRIBED)) {
+                // 先取消上游再通知下游，下游拿到超时的时候上游已经停了
+                cancelUpstream(timeoutFuture, up);
+                propagate(timeoutFuture);
+            }
+        };
+        setNext(timeoutFuture);
+        // 上游已经完成的，接上的时候定时器就已经停了
+        if (!timer.isDone()) {
+            toLoop(timer);
+        }
+        return timeoutFuture;
+    }
+
+    /**
+     * 在BiFunction里面原样抛出受检异常
+     */
+    @SneakyThrows
+    private static <R> R rethrow(Throwable e) {
+        throw e;
+    }
+
+    /**
+     * 添加一个订阅者，压到订阅者栈上
+     * <p>
+     * 同时传递运行时；已经完成并通知过订阅者的，新的订阅者直接执行，不会把上游再跑一遍
      */
     private void setNext(MyCompletableFuture<?> nextFuture) {
-        this.next = nextFuture;
-        nextFuture.head = this.head;
+        nextFuture.runtime = this.runtime;
+        nextFuture.upstream = this;
+        if (push(nextFuture)) {
+            return;
+        }
+        // 已经完成的上游不用再拉住
+        nextFuture.upstream = null;
+        if (!nextFuture.isSync()) {
+            toLoop(nextFuture);
+        } else if (nextFuture.applySync(this)) {
+            propagate(nextFuture);
+        }
     }
 
     /**
-     * 延时任务
+     * 压到订阅者栈上
+     *
+     * @return false表示已经完成并通知过订阅者，没有压上去，由调用方直接处理
+     */
+    private boolean push(Subscriber subscriber) {
+        Subscriber top;
+        do {
+            top = this.next;
+            if (top == COMPLETED) {
+                return false;
+            }
+            subscriber.sibling = top;
+        } while (!NEXT.compareAndSet(this, top, subscriber));
+        return true;
+    }
+
+    /**
+     * 把调用链绑定到nio事件循环上执行，只能在调用链头部、接上后续节点之前调用
+     * <p>
+     * 之后链上的节点、在事件循环线程上新建的future都在这个事件循环执行；
+     * 适合在事件循环线程上完成的future，比如NioHttpClient的回调，完成之后不用再切到运行时线程
+     */
+    public MyCompletableFuture<T> bindTo(NioEventLoop loop) {
+        Assert.isTrue(upstream == null && next == null, "只能绑定调用链头部");
+        this.runtime = EventLoopRuntime.of(loop);
+        return this;
+    }
+
+    /**
+     * 延时任务，失败也一样延时之后往下传
      */
     public MyCompletableFuture<T> delay(long delayMillis) {
         Assert.isTrue(delayMillis > 0);
-        final MyCompletableFuture<T> delayFuture = new MyCompletableFuture<>();
-        delayFuture.triggerTime = delayMillis + System.currentTimeMillis();
-        delayFuture.runnable = () -> {
-            delayFuture.setSuccess(this.result);
+        final MyCompletableFuture<T> delayFuture = new DelayedFuture<>(delayMillis + System.currentTimeMillis());
+        delayFuture.fn = (Runnable) () -> {
+            delayFuture.finish(this.value(), this.failure());
         };
         setNext(delayFuture);
         return delayFuture;
@@ -329,68 +1031,323 @@ public class MyCompletableFuture<T> {
 
     /**
      * 触发执行，但不阻塞当前线程
+     * <p>
+     * 沿着upstream往上找调用链头部，途中遇到已经触发过的就不用再找了，共享的上游只执行一次
      */
     public MyCompletableFuture<T> fire() {
-        toLoop(this.head);
+        MyCompletableFuture<?> node = this;
+        while ((node.state & SUBSCRIBED) == 0) {
+            final MyCompletableFuture<?> up = node.upstream;
+            if (up == null) {
+                toLoop(node);
+                break;
+            }
+            node = up;
+        }
         return this;
     }
 
     /**
      * 触发执行，阻塞当前线程，等待结果
+     * <p>
+     * 用park阻塞，不占用锁，虚拟线程阻塞时不会钉住载体线程；多个线程可以同时block同一个future
+     * <p>
+     * 失败时抛出：RuntimeException（包括取消的CancellationException）原样抛出，其他的包成CompletionException
+     */
+    public T block() {
+        if (!isDone()) {
+            this.fire();
+            await(0);
+        }
+        return report();
+    }
+
+    /**
+     * 同{@link #block()}，最多等待timeout
+     * <p>
+     * 等待超时抛出包着TimeoutException的CompletionException，future本身不受影响，还会接着执行；
+     * 要让调用链本身超时用{@link #orTimeout}
+     */
+    public T block(Duration timeout) {
+        if (!isDone()) {
+            this.fire();
+            if (!await(System.nanoTime() + Math.max(1, timeout.toNanos()))) {
+                throw new CompletionException(new TimeoutException("block timeout: " + timeout));
+            }
+        }
+        return report();
+    }
+
+    /**
+     * 挂到等待栈上，park到完成
+     * <p>
+     * 这边先入栈再看完成状态，propagate那边先写完成状态再取栈，两边都是volatile，
+     * 入栈之后、park之前就完成的也会被unpark，不会错过通知；park醒来总是重新看状态，被多unpark一次也没关系
+     *
+     * @param deadline System.nanoTime()的截止时间，0表示不限时
+     * @return 是否已经完成
      */
-    public synchronized T block() {
-        if (isSuccess()) {
-            return result;
+    @SneakyThrows
+    private boolean await(long deadline) {
+        final Waiter waiter = new Waiter(Thread.currentThread());
+        Waiter top;
+        do {
+            top = waiters;
+            waiter.next = top;
+        } while (!WAITERS.compareAndSet(this, top, waiter));
+
+        while (!isDone()) {
+            if (deadline == 0) {
+                LockSupport.park(this);
+            } else {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    // 还在栈顶的顺手摘掉，反复限时等待同一个future时栈不会一直变长
+                    WAITERS.compareAndSet(this, waiter, waiter.next);
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            if (Thread.interrupted()) {
+                WAITERS.compareAndSet(this, waiter, waiter.next);
+                throw new InterruptedException();
+            }
         }
-        this.fire();
+        return true;
+    }
 
-        // 线程阻塞等待结果
-        blockLatch.block();
-        return result;
+    /**
+     * 完成之后的结果，失败时抛出
+     */
+    private T report() {
+        final Throwable e = failure();
+        if (e == null) {
+            return value();
+        }
+        throw e instanceof RuntimeException ? (RuntimeException) e : new CompletionException(e);
     }
 
     /**
      * 是否执行成功
      */
     public boolean isSuccess() {
-        return success != null && success;
+        return (state & COMPLETION_MASK) == SUCCESS;
     }
 
     /**
-     * 执行成功
+     * 是否已经完成，成功、失败、取消、超时都算
      */
-    private void setSuccess(T result) {
-        // 设置成功结果
-        this.result = result;
-        this.success = true;
+    @Override
+    public boolean isDone() {
+        return (state & COMPLETION_MASK) >= SUCCESS;
+    }
 
-        // 执行下一条
-        if (next != null && isSubscribed) {
-            toLoop(next);
-        }
+    /**
+     * 是否失败，包括取消和超时
+     */
+    public boolean isCompletedExceptionally() {
+        return (state & COMPLETION_MASK) == FAILED;
+    }
 
-        // 通知阻塞等待的线程
-        blockLatch.unblock();
+    public boolean isCancelled() {
+        return isCompletedExceptionally() && result instanceof CancellationException;
+    }
+
+    private boolean isSync() {
+        return (state & SYNC) != 0;
     }
 
     /**
-     * 推入到事件循环，开始执行
+     * 成功的结果，只能在完成之后调用，失败时为null
+     */
+    @SuppressWarnings("unchecked")
+    private T value() {
+        return isCompletedExceptionally() ? null : (T) result;
+    }
+
+    /**
+     * 失败原因，只能在完成之后调用，成功时为null
+     */
+    private Throwable failure() {
+        return isCompletedExceptionally() ? (Throwable) result : null;
+    }
+
+    /**
+     * 抢完成权，抢到了写入结果；只负责状态，不通知订阅者
+     */
+    private boolean tryComplete(T result, Throwable exception) {
+        return tryComplete(result, exception, 0);
+    }
+
+    /**
+     * @param flags 抢到完成权的同时设置的标记
+     */
+    private boolean tryComplete(T result, Throwable exception, int flags) {
+        int s;
+        do {
+            s = state;
+            if ((s & COMPLETION_MASK) != PENDING) {
+                return false;
+            }
+        } while (!STATE.compareAndSet(this, s, s | COMPLETING | flags));
+        this.result = exception == null ? result : exception;
+        // 标记位可能在这期间被别的线程改了，只加完成状态这两位
+        STATE.getAndAdd(this, (exception == null ? SUCCESS : FAILED) - COMPLETING);
+        return true;
+    }
+
+    /**
+     * 设置标记
+     *
+     * @return 设置之前的状态
+     */
+    private int addFlag(int flag) {
+        int s;
+        do {
+            s = state;
+            if ((s & flag) != 0) {
+                return s;
+            }
+        } while (!STATE.compareAndSet(this, s, s | flag));
+        return s;
+    }
+
+    /**
+     * 以成功或者失败完成，并通知订阅者
+     *
+     * @return 是否是这次调用完成的
+     */
+    private boolean finish(T result, Throwable exception) {
+        if (!tryComplete(result, exception)) {
+            return false;
+        }
+        propagate(this);
+        return true;
+    }
+
+    /**
+     * 通知已经完成的future的全部订阅者
+     * <p>
+     * 异步节点推进事件循环；同步节点在当前线程直接算，只有一个的时候用循环接着往下走，
+     * 一长串thenApply也不会递归，不会栈溢出；同一个上游有多个同步订阅者时，多出来的递归处理
      * <p>
-     * 这里只支持在设定好的线程执行，不支持在当前线程执行
+     * 已经被取消或者超时的订阅者不再执行，只把它自己的结果接着往下传；组合的成员交给组合去计数
+     * <p>
+     * 完成的节点不再需要上游和执行逻辑，顺便清掉，长调用链走过的部分可以被回收
      */
-    private static void toLoop(MyCompletableFuture<?> future) {
-        future.isSubscribed = true;
-        if (future.isCompleted) {
-            MyFutureRuntime.INSTANCE.addTask(future);
+    private static void propagate(MyCompletableFuture<?> completed) {
+        MyCompletableFuture<?> current = completed;
+        while (current != null) {
+            current.upstream = null;
+            current.fn = null;
+            current.onCancel = null;
+            // 还没触发的冷调用链先不通知，订阅者留在栈上
+            final Subscriber listeners = (current.state & SUBSCRIBED) != 0 ? NEXT.getAndSet(current, COMPLETED) : null;
+            MyCompletableFuture<?> syncNext = null;
+            Subscriber subscriber = listeners == COMPLETED ? null : listeners;
+            while (subscriber != null) {
+                final Subscriber sibling = subscriber.sibling;
+                subscriber.sibling = null;
+                if (subscriber instanceof Member) {
+                    final Member member = (Member) subscriber;
+                    member.combinator.onChildDone(member.index, current);
+                    subscriber = sibling;
+                    continue;
+                }
+                final MyCompletableFuture<?> listener = (MyCompletableFuture<?>) subscriber;
+                if (listener.isDone()) {
+                    listener.addFlag(SUBSCRIBED);
+                    if (syncNext == null) {
+                        syncNext = listener;
+                    } else {
+                        propagate(listener);
+                    }
+                } else if (!listener.isSync()) {
+                    // 执行下一条
+                    toLoop(listener);
+                } else if (listener.applySync(current)) {
+                    if (syncNext == null) {
+                        syncNext = listener;
+                    } else {
+                        propagate(listener);
+                    }
+                }
+                subscriber = sibling;
+            }
+
+            // 通知阻塞等待的线程，没有人等的时候只多一次volatile读
+            if (current.waiters != null) {
+                for (Waiter waiter = WAITERS.getAndSet(current, null); waiter != null; waiter = waiter.next) {
+                    LockSupport.unpark(waiter.thread);
+                }
+            }
+            current = syncNext;
         }
     }
 
     /**
-     * 是否完成
+     * 同步节点用上游的结果算出自己的结果，fn抛出的异常作为这个节点的失败
      *
-     * 用于判断未初始化值的future
+     * @return 是否需要继续通知这个节点的订阅者
      */
-    boolean isCompleted = true;
+    @SuppressWarnings("unchecked")
+    private boolean applySync(MyCompletableFuture<?> upstream) {
+        final Throwable failure = upstream.failure();
+        final int s = this.state;
+        if ((s & COMPLETION_MASK) != PENDING) {
+            // 已经被取消或者超时了，可能还没触发过，由调用方把它自己的结果传下去
+            addFlag(SUBSCRIBED);
+            return true;
+        }
+        if (failure != null && (s & HANDLES_FAILURE) == 0) {
+            return completeSync(null, failure);
+        }
+        T value;
+        try {
+            value = (T) ((BiFunction<Object, Throwable, Object>) fn).apply(upstream.value(), failure);
+        } catch (Throwable e) {
+            return completeSync(null, e);
+        }
+        return completeSync(value, null);
+    }
 
-    boolean isSubscribed = false;
+    /**
+     * 同步节点完成的同时标记为已触发，少一次CAS；抢不到说明同时被取消或者超时了，也要通知订阅者
+     */
+    private boolean completeSync(T value, Throwable exception) {
+        if (!tryComplete(value, exception, SUBSCRIBED)) {
+            addFlag(SUBSCRIBED);
+        }
+        return true;
+    }
+
+    private static <E extends Throwable> E stackless(E e) {
+        e.setStackTrace(new StackTraceElement[0]);
+        return e;
+    }
+
+    /**
+     * 推入到事件循环，开始执行
+     * <p>
+     * 只在设定好的运行时线程执行：当前已经在这个线程上、又不需要延时的，直接内联执行，不进队列；
+     * 内联嵌套超过{@link #MAX_INLINE_DEPTH}层的还是进队列，由事件循环接着执行，相当于一个蹦床
+     */
+    private static void toLoop(MyCompletableFuture<?> future) {
+        final int s = future.addFlag(SUBSCRIBED);
+        // 等着complete的还没完成，complete的时候看到已触发的标记再通知；正在写结果的也算没完成，写完之后那边会看到这个标记
+        if ((s & AWAITING) != 0 && (s & COMPLETION_MASK) < SUCCESS) {
+            return;
+        }
+        final FutureRuntime runtime = future.runtime;
+        if (runtime.inRuntime() && runtime.inlineDepth < MAX_INLINE_DEPTH && remainingDelay(future) <= 0) {
+            runtime.inlineDepth++;
+            try {
+                MyFutureRuntime.run(future);
+            } finally {
+                runtime.inlineDepth--;
+            }
+        } else {
+            runtime.addTask(future);
+        }
+    }
 }
@@ -0,0 +1,53 @@
+package com.example.javaniodemo.myfuture;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * allOf汇总{@link #children}个已经有值的子future的开销，结果单位是微秒/次
+ * <p>
+ * 子future都是newWithValue，测的是组合本身：订阅、计数、收集结果；加上-prof gc可以看每次的分配字节数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MyCompletableFutureAllOfBenchmark {
+
+    @Param({"10", "1000"})
+    int children;
+
+    @Benchmark
+    public Void allOf() {
+        final MyCompletableFuture<?>[] cfs = new MyCompletableFuture[children];
+        for (int i = 0; i < children; i++) {
+            cfs[i] = MyCompletableFuture.newWithValue(i);
+        }
+        return MyCompletableFuture.newAllOf(cfs).block();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Integer> allAsList() {
+        final MyCompletableFuture<Integer>[] cfs = new MyCompletableFuture[children];
+        for (int i = 0; i < children; i++) {
+            cfs[i] = MyCompletableFuture.newWithValue(i);
+        }
+        return MyCompletableFuture.newAllAsList(cfs).block();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(MyCompletableFutureAllOfBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.javaniodemo.myfuture;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 调用链长度和耗时的关系，结果单位是纳秒/条调用链
+ * <p>
+ * 每次操作新建一条chainLength个操作符的调用链，fire之后等最后一个节点完成；
+ * 都包含一次提交到运行时线程、一次唤醒等待线程的固定开销，看的是随链长增长的斜率
+ * <p>
+ * - whenComplete：每个节点都经过toLoop，运行时线程上内联执行，超过深度限制才进队列
+ * - thenApply：同步节点，上一个节点完成时直接算，不经过toLoop
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyCompletableFutureChainBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    int chainLength;
+
+    @Param({"whenComplete", "thenApply"})
+    String operator;
+
+    @Benchmark
+    public Integer chain() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        MyCompletableFuture<Integer> future = MyCompletableFuture.newWithValue(0);
+        for (int i = 0; i < chainLength; i++) {
+            future = "thenApply".equals(operator)
+                    ? future.thenApply(n -> n + 1)
+                    : future.whenComplete((n, e) -> {
+                    });
+        }
+        final int[] result = new int[1];
+        future.whenComplete((n, e) -> {
+            result[0] = n;
+            latch.countDown();
+        }).fire();
+        latch.await();
+        return result[0];
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(MyCompletableFutureChainBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.javaniodemo.myfuture;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大量延时future的调度开销，结果单位是毫秒/次
+ * <p>
+ * 每次操作创建{@link #count}个delay的future并全部fire，等全部完成算一次；
+ * 延时均匀分布在1到{@link #MAX_DELAY_MILLIS}毫秒，所以结果减去{@link #MAX_DELAY_MILLIS}大致就是调度本身的开销
+ * <p>
+ * 运行时是单例、只有一个线程，不同实现之间对比时切到对应的提交上分别跑
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MyCompletableFutureDelayBenchmark {
+
+    static final int MAX_DELAY_MILLIS = 1000;
+
+    @Param({"1000000"})
+    int count;
+
+    @Benchmark
+    public void delay() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            MyCompletableFuture.newWithValue(i)
+                    .delay(1 + i % MAX_DELAY_MILLIS)
+                    .whenComplete((value, e) -> latch.countDown())
+                    .fire();
+        }
+        latch.await();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(MyCompletableFutureDelayBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.javaniodemo.myfuture;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个上游多个订阅者，结果单位是纳秒/次完成
+ * <p>
+ * 每次操作新建一个上游，挂上subscribers个订阅者，complete之后等全部订阅者执行完
+ * <p>
+ * - thenAccept：同步订阅者，在complete的线程里面直接执行，看的是订阅者栈本身的开销
+ * - whenComplete：异步订阅者，每个都推进运行时线程
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MyCompletableFutureFanOutBenchmark {
+
+    @Param({"1", "2", "1000"})
+    int subscribers;
+
+    @Param({"thenAccept", "whenComplete"})
+    String operator;
+
+    @Benchmark
+    public void fanOut() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(subscribers);
+        final MyCompletableFuture<Integer> source = MyCompletableFuture.newToComplete();
+        for (int i = 0; i < subscribers; i++) {
+            if ("thenAccept".equals(operator)) {
+                source.thenAccept(n -> latch.countDown());
+            } else {
+                source.whenComplete((n, e) -> latch.countDown());
+            }
+        }
+        source.fire();
+        source.complete(1);
+        latch.await();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(MyCompletableFutureFanOutBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.javaniodemo.myfuture;
+
+import com.example.javaniodemo.PerIterationCounters;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * 每个在途请求占多少堆，结果看bytesPerRequest
+ * <p>
+ * 调用链的形状同JavaNioWithMyFutureDemo.multiTest：{@link #parallelCount}条并发，每条顺序发{@link #REQUESTS_PER_PARALLEL}个请求，
+ * 请求用newToComplete代替，不走网络；第一批请求都发出去之后GC，用堆的增量除以在途请求数，
+ * 算的是调用链本身的开销，包括还没执行的后续节点和allOf
+ * <p>
+ * 不同实现之间对比时切到对应的提交上分别跑，只用了公开接口
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class MyCompletableFutureFootprintBenchmark {
+
+    static final int REQUESTS_PER_PARALLEL = 2;
+
+    @Param({"10000"})
+    int parallelCount;
+
+    /**
+     * 每次迭代的测量结果
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint extends PerIterationCounters {
+
+        public double bytesPerRequest;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerRequest = 0;
+        }
+    }
+
+    @Benchmark
+    public void inFlight(Footprint footprint) {
+        final Queue<MyCompletableFuture<String>> requests = new ConcurrentLinkedQueue<>();
+        final long before = usedHeap();
+
+        final MyCompletableFuture<Void> resultFuture = MyCompletableFuture.newAllOf(IntStream.range(0, parallelCount)
+                .mapToObj(i -> {
+                    MyCompletableFuture<String> singleParallelFuture = MyCompletableFuture.newWithValue("");
+                    for (int j = 0; j < REQUESTS_PER_PARALLEL; j++) {
+                        singleParallelFuture = singleParallelFuture.thenCompose(s -> {
+                            final MyCompletableFuture<String> request = MyCompletableFuture.newToComplete();
+                            requests.add(request);
+                            return request.whenComplete((body, e) -> {
+                            });
+                        });
+                    }
+                    return singleParallelFuture;
+                })
+                .toArray(MyCompletableFuture[]::new));
+        resultFuture.fire();
+
+        for (int round = 0; round < REQUESTS_PER_PARALLEL; round++) {
+            awaitIssued(requests);
+            if (round == 0) {
+                footprint.bytesPerRequest = footprint.perIteration((double) (usedHeap() - before) / parallelCount);
+            }
+            for (int i = 0; i < parallelCount; i++) {
+                requests.poll().complete("hello");
+            }
+        }
+        resultFuture.block();
+    }
+
+    /**
+     * 等这一批请求全部发出去，请求是在运行时线程上发的
+     */
+    private void awaitIssued(Queue<MyCompletableFuture<String>> requests) {
+        while (requests.size() < parallelCount) {
+            Thread.yield();
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        // 多来几次，让上一次迭代留下的对象都回收掉
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(MyCompletableFutureFootprintBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -1,12 +1,29 @@
 package com.example.javaniodemo.myfuture;
 
 import cn.hutool.core.thread.ThreadUtil;
+import com.example.javaniodemo.nio.NioConnectionPool;
+import com.example.javaniodemo.nio.NioEventLoop;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.vm.VM;
 
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -149,6 +166,546 @@ public class MyCompletableFutureTest {
         resultFuture.block();
     }
 
+    /**
+     * 多个线程同时提交，回调一个都不能少，也不能因为漏掉唤醒卡住
+     */
+    @Test
+    public void testConcurrentComplete() throws Exception {
+        final int threadCount = 4;
+        final int perThread = 10000;
+        final CountDownLatch latch = new CountDownLatch(threadCount * perThread);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    final MyCompletableFuture<Integer> future = MyCompletableFuture.newToComplete();
+                    future.whenComplete((n, throwable) -> latch.countDown()).fire();
+                    future.complete(i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS), "剩余回调：" + latch.getCount());
+    }
+
+    /**
+     * 一条调用链上的回调，包括thenCompose里面新建的future，都在同一个运行时线程上执行
+     * <p>
+     * 加上-Dmyfuture.runtimes=4运行才有意义
+     */
+    @Test
+    public void testRuntimeAffinity() {
+        for (int i = 0; i < 8; i++) {
+            final Set<String> threads = ConcurrentHashMap.newKeySet();
+            MyCompletableFuture.newWithValue("affinity")
+                    .whenComplete((s, throwable) -> threads.add(Thread.currentThread().getName()))
+                    .thenCompose(s -> MyCompletableFuture.newWithValue(s)
+                            .delay(10)
+                            .whenComplete((sc, throwable) -> threads.add(Thread.currentThread().getName())))
+                    .whenComplete((s, throwable) -> threads.add(Thread.currentThread().getName()))
+                    .block();
+            Assertions.assertEquals(1, threads.size(), threads.toString());
+        }
+    }
+
+    /**
+     * 绑定到nio事件循环之后，链上的节点、延时、回调里面新建的future都在事件循环线程执行
+     */
+    @Test
+    public void testBindToEventLoop() throws Exception {
+        final NioEventLoop loop = new NioEventLoop("nio-loop-test", new NioConnectionPool(1, 1, 30_000));
+        try {
+            final Set<String> threads = ConcurrentHashMap.newKeySet();
+            final String result = MyCompletableFuture.newWithValue("bind")
+                    .bindTo(loop)
+                    .whenComplete((s, throwable) -> threads.add(Thread.currentThread().getName()))
+                    .delay(20)
+                    .thenCompose(s -> MyCompletableFuture.newWithValue(s + " loop")
+                            .delay(20)
+                            .whenComplete((sc, throwable) -> threads.add(Thread.currentThread().getName())))
+                    .whenComplete((s, throwable) -> threads.add(Thread.currentThread().getName()))
+                    .block();
+            Assertions.assertEquals("bind loop", result);
+            Assertions.assertEquals(Set.of("nio-loop-test"), threads);
+        } finally {
+            loop.shutdown();
+            loop.awaitTermination();
+        }
+    }
+
+    @Test
+    public void testThenApply() {
+        final List<String> accepted = new ArrayList<>();
+        final MyCompletableFuture<String> source = MyCompletableFuture.newToComplete();
+        final MyCompletableFuture<Void> future = source
+                .thenApply(String::length)
+                .thenApply(n -> n * 2)
+                .thenAccept(n -> accepted.add(Thread.currentThread().getName() + ":" + n));
+        future.fire();
+        source.complete("hello");
+        // 同步节点在complete的线程里面直接算完，不进队列
+        Assertions.assertEquals(List.of(Thread.currentThread().getName() + ":10"), accepted);
+        Assertions.assertTrue(future.isSuccess());
+    }
+
+    /**
+     * 很长的调用链：同步节点用循环，内联执行超过深度限制回到队列，都不会栈溢出
+     */
+    @Test
+    public void testLongChain() {
+        final int length = 100_000;
+        MyCompletableFuture<Integer> applyChain = MyCompletableFuture.newWithValue(0);
+        MyCompletableFuture<Integer> whenCompleteChain = MyCompletableFuture.newWithValue(0);
+        final AtomicInteger counter = new AtomicInteger();
+        for (int i = 0; i < length; i++) {
+            applyChain = applyChain.thenApply(n -> n + 1);
+            whenCompleteChain = whenCompleteChain.whenComplete((n, throwable) -> counter.incrementAndGet());
+        }
+        Assertions.assertEquals(length, applyChain.block());
+        whenCompleteChain.block();
+        Assertions.assertEquals(length, counter.get());
+    }
+
+    /**
+     * 同一个上游多个订阅者，上游只执行一次
+     */
+    @Test
+    public void testMultipleSubscribers() {
+        final AtomicInteger executions = new AtomicInteger();
+        final MyCompletableFuture<String> shared = MyCompletableFuture.newWithValue("token")
+                .delay(10)
+                .whenComplete((s, throwable) -> executions.incrementAndGet());
+        final List<MyCompletableFuture<String>> dependents = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int index = i;
+            dependents.add(i % 2 == 0
+                    ? shared.thenApply(s -> s + index)
+                    : shared.thenCompose(s -> MyCompletableFuture.newWithValue(s + index)));
+        }
+        for (int i = 0; i < dependents.size(); i++) {
+            Assertions.assertEquals("token" + i, dependents.get(i).block());
+        }
+        Assertions.assertEquals(1, executions.get());
+    }
+
+    /**
+     * 上游已经完成之后再订阅，直接拿结果，不会再执行上游
+     */
+    @Test
+    public void testSubscribeAfterComplete() {
+        final AtomicInteger executions = new AtomicInteger();
+        final MyCompletableFuture<Integer> shared = MyCompletableFuture.newWithValue(1)
+                .whenComplete((n, throwable) -> executions.incrementAndGet());
+        Assertions.assertEquals(1, shared.block());
+        Assertions.assertEquals(2, shared.thenApply(n -> n + 1).block());
+        Assertions.assertEquals(3, shared.whenComplete((n, throwable) -> {
+        }).thenCompose(n -> MyCompletableFuture.newWithValue(n + 2)).block());
+        Assertions.assertEquals(1, executions.get());
+
+        // 先complete再订阅、再fire
+        final MyCompletableFuture<String> source = MyCompletableFuture.newToComplete();
+        source.complete("done");
+        Assertions.assertEquals("done!", source.thenApply(s -> s + "!").block());
+    }
+
+    /**
+     * 失败沿着调用链往下传，中间的thenApply、thenCompose不执行，exceptionally、handle、whenComplete能收到
+     */
+    @Test
+    public void testFailurePropagation() {
+        final AtomicInteger skipped = new AtomicInteger();
+        final List<Throwable> observed = new ArrayList<>();
+        final MyCompletableFuture<String> source = MyCompletableFuture.newToComplete();
+        final MyCompletableFuture<String> failed = source
+                .thenApply(s -> {
+                    skipped.incrementAndGet();
+                    return s;
+                })
+                .thenCompose(s -> {
+                    skipped.incrementAndGet();
+                    return MyCompletableFuture.newWithValue(s);
+                })
+                .whenComplete((s, e) -> observed.add(e));
+        final MyCompletableFuture<String> recovered = failed.exceptionally(e -> "recovered: " + e.getMessage());
+        final MyCompletableFuture<Integer> handled = failed.handle((s, e) -> e == null ? 0 : -1);
+
+        source.completeExceptionally(new IllegalStateException("boom"));
+        Assertions.assertEquals("recovered: boom", recovered.block());
+        Assertions.assertEquals(-1, handled.block());
+        final IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, failed::block);
+        Assertions.assertEquals("boom", e.getMessage());
+        Assertions.assertTrue(failed.isCompletedExceptionally());
+        Assertions.assertEquals(0, skipped.get());
+        Assertions.assertEquals(1, observed.size());
+
+        // 回调自己抛的异常也是失败
+        final MyCompletableFuture<Integer> thrown = MyCompletableFuture.newWithValue(1)
+                .thenCompose(n -> {
+                    throw new IllegalArgumentException("bad " + n);
+                });
+        Assertions.assertEquals("bad 1", Assertions.assertThrows(IllegalArgumentException.class, thrown::block).getMessage());
+        Assertions.assertEquals("ok", MyCompletableFuture.newWithValue(1)
+                .thenApply(n -> n / 0)
+                .handle((n, ex) -> ex instanceof ArithmeticException ? "ok" : "unexpected")
+                .block());
+    }
+
+    /**
+     * 一个失败，allOf马上失败，不等其他的
+     */
+    @Test
+    public void testAllOfFailFast() {
+        final MyCompletableFuture<Void> all = MyCompletableFuture.newAllOf(
+                MyCompletableFuture.newWithValue(1).delay(10_000),
+                MyCompletableFuture.newWithValue(2).thenApply(n -> n / 0));
+        final long start = System.currentTimeMillis();
+        Assertions.assertThrows(ArithmeticException.class, all::block);
+        Assertions.assertTrue(System.currentTimeMillis() - start < 5_000);
+    }
+
+    /**
+     * 取消沿着只有一个订阅者的上游往上走，执行头部的钩子；被共享的上游不取消
+     */
+    @Test
+    public void testCancel() {
+        final AtomicInteger hooks = new AtomicInteger();
+        final MyCompletableFuture<String> source = MyCompletableFuture.newToComplete();
+        source.onCancel(hooks::incrementAndGet);
+        final MyCompletableFuture<String> shared = source.thenApply(s -> s + "!");
+        final MyCompletableFuture<String> first = shared.whenComplete((s, e) -> {
+        });
+        final MyCompletableFuture<String> second = shared.thenApply(s -> s + "?");
+        first.fire();
+        second.fire();
+
+        Assertions.assertTrue(first.cancel());
+        Assertions.assertFalse(first.cancel());
+        Assertions.assertTrue(first.isCancelled());
+        Assertions.assertThrows(CancellationException.class, first::block);
+        // shared还有second订阅，不取消
+        Assertions.assertFalse(shared.isDone());
+        Assertions.assertEquals(0, hooks.get());
+
+        Assertions.assertTrue(second.cancel());
+        Assertions.assertTrue(shared.isCancelled());
+        Assertions.assertTrue(source.isCancelled());
+        Assertions.assertEquals(1, hooks.get());
+        // 取消之后再完成不起作用
+        source.complete("late");
+        Assertions.assertThrows(CancellationException.class, second::block);
+
+        // thenCompose回调返回的调用链一起取消
+        final MyCompletableFuture<String> inner = MyCompletableFuture.newToComplete();
+        final CountDownLatch composed = new CountDownLatch(1);
+        final MyCompletableFuture<String> outer = MyCompletableFuture.newWithValue("a")
+                .thenCompose(s -> {
+                    composed.countDown();
+                    return inner;
+                });
+        outer.fire();
+        ThreadUtil.sleep(100);
+        Assertions.assertEquals(0, composed.getCount());
+        outer.cancel();
+        Assertions.assertTrue(inner.isCancelled());
+    }
+
+    @Test
+    public void testTimeout() {
+        final MyCompletableFuture<String> source = MyCompletableFuture.newToComplete();
+        final long start = System.currentTimeMillis();
+        final MyCompletableFuture<String> timeout = source.orTimeout(100);
+        final CompletionException e = Assertions.assertThrows(CompletionException.class, timeout::block);
+        Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+        Assertions.assertTrue(System.currentTimeMillis() - start >= 90);
+        // 超时之后取消上游
+        Assertions.assertTrue(source.isCancelled());
+
+        Assertions.assertEquals("default", MyCompletableFuture.<String>newToComplete()
+                .completeOnTimeout("default", 50)
+                .block());
+        // 先完成的不受影响
+        Assertions.assertEquals("fast", MyCompletableFuture.newWithValue("fast")
+                .delay(10)
+                .orTimeout(5_000)
+                .block());
+    }
+
+    /**
+     * 先完成、失败或者被取消的，定时器马上从时间轮上摘掉，不能挂满整个超时时长、拉住整条调用链
+     */
+    @Test
+    public void testTimeoutTimerStopped() throws Exception {
+        final NioEventLoop loop = new NioEventLoop("nio-loop-timeout-test");
+        try {
+            final int count = 30_000;
+            for (int i = 0; i < count; i++) {
+                final MyCompletableFuture<Integer> source = MyCompletableFuture.<Integer>newToComplete().bindTo(loop);
+                final MyCompletableFuture<Integer> timed = source.orTimeout(60_000);
+                timed.fire();
+                switch (i % 3) {
+                    case 0:
+                        source.complete(i);
+                        Assertions.assertEquals(i, timed.block());
+                        break;
+                    case 1:
+                        source.completeExceptionally(new IllegalStateException("fail"));
+                        Assertions.assertThrows(IllegalStateException.class, timed::block);
+                        break;
+                    default:
+                        timed.cancel();
+                        Assertions.assertTrue(source.isCancelled());
+                        break;
+                }
+            }
+            // 摘定时器是提交给事件循环做的，等它处理完
+            int size = wheelSize(loop);
+            for (int i = 0; i < 100 && size > 0; i++) {
+                ThreadUtil.sleep(10);
+                size = wheelSize(loop);
+            }
+            Assertions.assertEquals(0, size);
+        } finally {
+            loop.shutdown();
+            loop.awaitTermination();
+        }
+    }
+
+    /**
+     * 别的线程complete抢到了完成权、结果还没写完（COMPLETING）的时候触发：
+     * 不能把它当成没完成的节点去执行，等complete那边写完看到已触发的标记再通知
+     */
+    @Test
+    public void testFireWhileCompleting() throws Exception {
+        final NioEventLoop loop = new NioEventLoop("nio-loop-completing-test");
+        try {
+            final MyCompletableFuture<String> source = MyCompletableFuture.<String>newToComplete().bindTo(loop);
+            final MyCompletableFuture<Integer> length = source.thenApply(String::length);
+            // 停在complete的两次CAS之间；fn换成记录执行的任务，看它有没有被当成普通节点执行
+            final AtomicInteger ran = new AtomicInteger();
+            final Field fn = field("fn");
+            final Field state = field("state");
+            final int completing = field("COMPLETING").getInt(null);
+            fn.set(source, (Runnable) ran::incrementAndGet);
+            state.setInt(source, state.getInt(source) | completing);
+            // 在事件循环线程上触发，toLoop直接内联执行
+            final CompletableFuture<Void> fired = new CompletableFuture<>();
+            loop.execute(() -> {
+                length.fire();
+                fired.complete(null);
+            });
+            fired.join();
+            Assertions.assertEquals(0, ran.get());
+
+            // 恢复成complete之前的样子，complete写完结果后通知已经触发的下游
+            state.setInt(source, state.getInt(source) & ~completing);
+            fn.set(source, null);
+            source.complete("hello");
+            Assertions.assertEquals(5, length.block());
+        } finally {
+            loop.shutdown();
+            loop.awaitTermination();
+        }
+    }
+
+    private static Field field(String name) throws NoSuchFieldException {
+        final Field field = MyCompletableFuture.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static int wheelSize(NioEventLoop loop) {
+        final CompletableFuture<Integer> size = new CompletableFuture<>();
+        loop.execute(() -> size.complete(loop.timer().size()));
+        return size.join();
+    }
+
+    /**
+     * 大量请求一起超时，每个都要能及时失败
+     */
+    @Test
+    public void testTimeoutStorm() {
+        final int count = 100_000;
+        final AtomicInteger timedOut = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            MyCompletableFuture.<Integer>newToComplete()
+                    .orTimeout(50)
+                    .whenComplete((n, e) -> {
+                        if (e instanceof TimeoutException) {
+                            timedOut.incrementAndGet();
+                        }
+                        latch.countDown();
+                    })
+                    .fire();
+        }
+        Assertions.assertTrue(await(latch, 10_000));
+        Assertions.assertEquals(count, timedOut.get());
+    }
+
+    /**
+     * 子future在多个外部线程上完成，计数不能丢，结果按参数顺序
+     */
+    @Test
+    public void testAllOfCompletedOnForeignThreads() throws Exception {
+        final int count = 10_000;
+        final int threads = 4;
+        for (int round = 0; round < 5; round++) {
+            final List<MyCompletableFuture<Integer>> children = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                children.add(MyCompletableFuture.newToComplete());
+            }
+            @SuppressWarnings("unchecked")
+            final MyCompletableFuture<Integer>[] array = children.toArray(new MyCompletableFuture[0]);
+            final MyCompletableFuture<List<Integer>> all = MyCompletableFuture.newAllAsList(array);
+            all.fire();
+            final List<Thread> completers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int offset = t;
+                completers.add(new Thread(() -> {
+                    for (int i = offset; i < count; i += threads) {
+                        children.get(i).complete(i);
+                    }
+                }));
+            }
+            completers.forEach(Thread::start);
+            for (Thread completer : completers) {
+                completer.join();
+            }
+            Assertions.assertEquals(IntStream.range(0, count).boxed().collect(Collectors.toList()), all.block());
+        }
+        Assertions.assertNull(MyCompletableFuture.newAllOf().block());
+        Assertions.assertEquals(List.of(), MyCompletableFuture.newAllAsList().block());
+    }
+
+    /**
+     * anyOf取第一个成功的，firstN按完成顺序取前n个成功的，race取第一个完成的；有结果之后输掉的被取消
+     */
+    @Test
+    public void testAnyOfFirstNRace() {
+        final MyCompletableFuture<String> slow = MyCompletableFuture.newWithValue("slow").delay(5_000);
+        final MyCompletableFuture<String> any = MyCompletableFuture.newAnyOf(
+                MyCompletableFuture.<String>newToComplete().orTimeout(10),
+                slow,
+                MyCompletableFuture.newWithValue("fast").delay(50));
+        Assertions.assertEquals("fast", any.block());
+        Assertions.assertTrue(slow.isCancelled());
+
+        Assertions.assertEquals(List.of("b", "a"), MyCompletableFuture.newFirstN(2,
+                MyCompletableFuture.newWithValue("c").delay(300),
+                MyCompletableFuture.newWithValue("a").delay(100),
+                MyCompletableFuture.newWithValue("b").delay(10)).block());
+
+        // 两个里面失败了一个，凑不够2个，马上失败
+        final long start = System.currentTimeMillis();
+        Assertions.assertThrows(IllegalStateException.class, () -> MyCompletableFuture.newFirstN(2,
+                MyCompletableFuture.newWithValue("a").delay(5_000),
+                MyCompletableFuture.<String>newWithValue("b").thenApply(s -> {
+                    throw new IllegalStateException(s);
+                })).block());
+        Assertions.assertTrue(System.currentTimeMillis() - start < 2_000);
+
+        Assertions.assertThrows(CompletionException.class, () -> MyCompletableFuture.newAnyOf(
+                MyCompletableFuture.<String>newToComplete().orTimeout(10),
+                MyCompletableFuture.<String>newToComplete().orTimeout(20)).block());
+
+        // race不管成功失败，先完成的算
+        Assertions.assertThrows(CompletionException.class, () -> MyCompletableFuture.newRace(
+                MyCompletableFuture.newWithValue("late").delay(200),
+                MyCompletableFuture.<String>newToComplete().orTimeout(10)).block());
+        Assertions.assertEquals("first", MyCompletableFuture.newRace(
+                MyCompletableFuture.newWithValue("first").delay(10),
+                MyCompletableFuture.<String>newToComplete().orTimeout(200)).block());
+    }
+
+    /**
+     * 有结果之后先取消输掉的、再通知下游：下游同步节点执行、block返回的时候，输掉的一定已经取消了
+     */
+    @Test
+    public void testLosersCancelledBeforeNotify() {
+        for (int i = 0; i < 2; i++) {
+            final MyCompletableFuture<String> winner = MyCompletableFuture.newToComplete();
+            final MyCompletableFuture<String> loser = MyCompletableFuture.newToComplete();
+            final MyCompletableFuture<String> combined = i == 0
+                    ? MyCompletableFuture.newAnyOf(winner, loser)
+                    : MyCompletableFuture.newRace(winner, loser);
+            // 同步节点在通知下游的线程里面直接执行，看到的就是通知那一刻的状态
+            final MyCompletableFuture<Boolean> loserCancelled = combined.thenApply(s -> loser.isCancelled());
+            winner.complete("winner");
+            Assertions.assertTrue(loserCancelled.block());
+            Assertions.assertEquals("winner", combined.block());
+        }
+    }
+
+    @Test
+    public void testBlockTimeout() throws Exception {
+        final MyCompletableFuture<String> future = MyCompletableFuture.newToComplete();
+        final CompletionException e = Assertions.assertThrows(CompletionException.class, () -> future.block(Duration.ofMillis(50)));
+        Assertions.assertTrue(e.getCause() instanceof TimeoutException);
+        // 等待超时不影响future本身
+        Assertions.assertFalse(future.isDone());
+
+        new Thread(() -> {
+            ThreadUtil.sleep(50);
+            future.complete("hello");
+        }).start();
+        Assertions.assertEquals("hello", future.block(Duration.ofSeconds(5)));
+        Assertions.assertEquals("hello", future.block(Duration.ZERO));
+    }
+
+    /**
+     * 大量线程同时block同一个future，完成时全部唤醒
+     * <p>
+     * 这里是1000个平台线程；10万个虚拟线程的版本在loom-demo的MyCompletableFutureBlockTest
+     */
+    @Test
+    public void testManyBlockers() throws Exception {
+        final int blockers = 1_000;
+        final MyCompletableFuture<String> future = MyCompletableFuture.newToComplete();
+        final CountDownLatch started = new CountDownLatch(blockers);
+        final AtomicInteger succeeded = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>(blockers);
+        for (int i = 0; i < blockers; i++) {
+            final Thread thread = new Thread(() -> {
+                started.countDown();
+                if ("hello".equals(future.block(Duration.ofSeconds(30)))) {
+                    succeeded.incrementAndGet();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        Assertions.assertTrue(started.await(30, TimeUnit.SECONDS));
+        future.complete("hello");
+        for (Thread thread : threads) {
+            thread.join(30_000);
+        }
+        Assertions.assertEquals(blockers, succeeded.get());
+    }
+
+    /**
+     * 节点的大小，一次100×2的并发请求就有上千个节点
+     * <p>
+     * 只在压缩指针、12字节对象头（64位、堆小于32g的默认配置）下断言
+     */
+    @Test
+    public void testCompactLayout() throws Exception {
+        Assumptions.assumeTrue(VM.current().sizeOfField("oop") == 4 && VM.current().objectHeaderSize() == 12);
+        Assertions.assertEquals(48, ClassLayout.parseClass(MyCompletableFuture.class).instanceSize());
+        // 只有延时节点多带一个执行时间点
+        Assertions.assertEquals(56, ClassLayout.parseClass(Class.forName(MyCompletableFuture.class.getName() + "$DelayedFuture")).instanceSize());
+        // 组合器压在每个子future上的成员
+        Assertions.assertEquals(24, ClassLayout.parseClass(Class.forName(MyCompletableFuture.class.getName() + "$Member")).instanceSize());
+    }
+
+    @SneakyThrows
+    private static boolean await(CountDownLatch latch, long timeoutMillis) {
+        return latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
     public MyCompletableFuture<String> apiRequest() {
         return MyCompletableFuture.newWithValue("hello").delay(5 * 1000);
     }
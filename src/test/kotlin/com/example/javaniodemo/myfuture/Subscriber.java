@@ -0,0 +1,20 @@
+package com.example.javaniodemo.myfuture;
+
+/**
+ * {@link MyCompletableFuture}订阅者栈上的元素
+ * <p>
+ * 一般就是下一个节点本身；allOf、anyOf这些组合器要同时订阅很多子future，
+ * 每个子future上压一个只有几个字段的成员，不用再给每个子future包一层future
+ */
+abstract class Subscriber {
+
+    /**
+     * 同一个上游的下一个订阅者
+     */
+    Subscriber sibling;
+
+    /**
+     * 是否已经完成，完成了的订阅者不再需要上游的结果，取消上游时不算在内
+     */
+    abstract boolean isDone();
+}
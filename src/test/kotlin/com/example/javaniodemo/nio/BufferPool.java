@@ -0,0 +1,281 @@
+package com.example.javaniodemo.nio;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 堆外缓冲区池，JavaNio2Demo、CoroutineNio2Demo的读缓冲区从这里借
+ * <p>
+ * socket读写用堆内ByteBuffer时，jdk每次都要先拷贝到它自己的临时堆外缓冲区；
+ * 直接用堆外缓冲区省掉这次拷贝，但allocateDirect本身很贵，所以要池化
+ * <p>
+ * - 按2的幂分级，256到64K，申请的大小向上取整到所在级别
+ * - 每级从1M的大块（slab）上切出来，slab申请了就不再还给系统
+ * - 每个线程先用自己的缓存，不用加锁；线程缓存满了或者空了再去全局空闲列表
+ * - 线程退出、Thread对象被GC之后，它缓存里的缓冲区还回全局空闲列表
+ * - 超过64K的不池化，直接allocateDirect
+ * <p>
+ * 用完必须显式{@link PooledBuffer#release()}；打开泄漏检测后，没有release就被GC的缓冲区会打日志，带上申请时的调用栈
+ */
+@Slf4j
+public class BufferPool {
+
+    /**
+     * 全局共用的池，泄漏检测由系统属性nio.bufferPool.leakDetection控制
+     */
+    public static final BufferPool DEFAULT = new BufferPool(Boolean.getBoolean("nio.bufferPool.leakDetection"));
+
+    static final int MIN_SIZE = 256;
+    static final int MAX_SIZE = 64 * 1024;
+    private static final int SLAB_SIZE = 1024 * 1024;
+    private static final int THREAD_CACHE_SIZE = 32;
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * 从池里借出的缓冲区
+     */
+    public final class PooledBuffer {
+        private final ByteBuffer buffer;
+        /**
+         * 所在级别，-1表示不池化
+         */
+        private final int sizeClass;
+        private final LeakTracker leakTracker;
+        private boolean released;
+
+        private PooledBuffer(ByteBuffer buffer, int sizeClass) {
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+            this.leakTracker = leakDetection ? new LeakTracker(this) : null;
+        }
+
+        public ByteBuffer buffer() {
+            if (released) {
+                throw new IllegalStateException("buffer already released");
+            }
+            return buffer;
+        }
+
+        /**
+         * 还回池里，之后不能再用这个缓冲区；重复release抛IllegalStateException
+         */
+        public void release() {
+            if (released) {
+                throw new IllegalStateException("buffer already released");
+            }
+            released = true;
+            if (leakTracker != null) {
+                leakTracker.release();
+            }
+            outstanding.decrement();
+            if (sizeClass >= 0) {
+                free(sizeClass, buffer);
+            }
+        }
+    }
+
+    /**
+     * 泄漏检测：PooledBuffer被GC时还没release就是泄漏
+     * <p>
+     * 不能持有PooledBuffer本身，否则它永远不会被GC
+     */
+    private final class LeakTracker implements Runnable {
+        private final Throwable allocation = new Throwable("buffer allocated here");
+        private final Cleaner.Cleanable cleanable;
+        private volatile boolean released;
+
+        LeakTracker(PooledBuffer owner) {
+            this.cleanable = CLEANER.register(owner, this);
+        }
+
+        void release() {
+            released = true;
+            // 主动触发，Cleaner里面就不用再留着这个对象
+            cleanable.clean();
+        }
+
+        @Override
+        public void run() {
+            if (!released) {
+                leaks.increment();
+                outstanding.decrement();
+                log.warn("PooledBuffer被GC之前没有release，堆外内存泄漏", allocation);
+            }
+        }
+    }
+
+    /**
+     * 某一级的全局空闲列表和正在切的slab
+     */
+    private static final class SizeClass {
+        final int size;
+        final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+        ByteBuffer slab;
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+    }
+
+    private final boolean leakDetection;
+    private final SizeClass[] sizeClasses;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCache;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder outstanding = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder slabs = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        final int count = Integer.numberOfTrailingZeros(MAX_SIZE) - Integer.numberOfTrailingZeros(MIN_SIZE) + 1;
+        this.sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            sizeClasses[i] = new SizeClass(MIN_SIZE << i);
+        }
+        final SizeClass[] sizeClasses = this.sizeClasses;
+        this.threadCache = ThreadLocal.withInitial(() -> {
+            final ArrayDeque<ByteBuffer>[] caches = new ArrayDeque[count];
+            for (int i = 0; i < count; i++) {
+                caches[i] = new ArrayDeque<>(THREAD_CACHE_SIZE);
+            }
+            // 没有线程退出的回调，只能等Thread对象被GC；这时候没有线程会再碰这个缓存，直接倒回全局
+            CLEANER.register(Thread.currentThread(), () -> drain(sizeClasses, caches));
+            return caches;
+        });
+    }
+
+    /**
+     * 不能捕获BufferPool和Thread，否则线程活着池子就不能GC，或者线程永远不能GC
+     */
+    private static void drain(SizeClass[] sizeClasses, ArrayDeque<ByteBuffer>[] caches) {
+        for (int i = 0; i < caches.length; i++) {
+            if (caches[i].isEmpty()) {
+                continue;
+            }
+            final SizeClass global = sizeClasses[i];
+            synchronized (global) {
+                global.free.addAll(caches[i]);
+            }
+            caches[i].clear();
+        }
+    }
+
+    /**
+     * 借一个至少capacity大小的堆外缓冲区，position为0，limit为capacity
+     */
+    public PooledBuffer acquire(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        outstanding.increment();
+        final int sizeClass = sizeClassOf(capacity);
+        if (sizeClass < 0) {
+            misses.increment();
+            return new PooledBuffer(ByteBuffer.allocateDirect(capacity), -1);
+        }
+        ByteBuffer buffer = threadCache.get()[sizeClass].pollLast();
+        if (buffer == null) {
+            buffer = allocate(sizeClasses[sizeClass]);
+        } else {
+            hits.increment();
+        }
+        buffer.clear().limit(capacity);
+        return new PooledBuffer(buffer, sizeClass);
+    }
+
+    static int sizeClassOf(int capacity) {
+        if (capacity > MAX_SIZE) {
+            return -1;
+        }
+        if (capacity <= MIN_SIZE) {
+            return 0;
+        }
+        // 向上取整到2的幂，再换算成级别
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    private ByteBuffer allocate(SizeClass sizeClass) {
+        synchronized (sizeClass) {
+            final ByteBuffer free = sizeClass.free.pollLast();
+            if (free != null) {
+                hits.increment();
+                return free;
+            }
+            misses.increment();
+            if (sizeClass.slab == null || sizeClass.slab.remaining() < sizeClass.size) {
+                sizeClass.slab = ByteBuffer.allocateDirect(SLAB_SIZE);
+                slabs.increment();
+            }
+            final ByteBuffer slab = sizeClass.slab;
+            final int position = slab.position();
+            slab.limit(position + sizeClass.size);
+            final ByteBuffer chunk = slab.slice();
+            slab.position(slab.limit()).limit(slab.capacity());
+            return chunk;
+        }
+    }
+
+    private void free(int sizeClass, ByteBuffer buffer) {
+        final ArrayDeque<ByteBuffer> cache = threadCache.get()[sizeClass];
+        if (cache.size() < THREAD_CACHE_SIZE) {
+            cache.addLast(buffer);
+            return;
+        }
+        // 线程缓存满了，比如一个线程专门申请、另一个线程专门释放，多出来的交给其他线程用
+        final SizeClass global = sizeClasses[sizeClass];
+        synchronized (global) {
+            global.free.addLast(buffer);
+        }
+    }
+
+    /**
+     * 命中率：从线程缓存或全局空闲列表拿到的比例，不算新切的和不池化的
+     */
+    public double hitRate() {
+        final long hit = hits.sum();
+        final long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * 借出去还没还回来的缓冲区数
+     */
+    public long outstanding() {
+        return outstanding.sum();
+    }
+
+    /**
+     * 泄漏检测发现的泄漏数，没打开泄漏检测时一直是0
+     */
+    public long leakCount() {
+        return leaks.sum();
+    }
+
+    public long slabCount() {
+        return slabs.sum();
+    }
+
+    /**
+     * capacity所在级别的全局空闲列表长度，不算线程缓存
+     */
+    int globalFreeCount(int capacity) {
+        final SizeClass global = sizeClasses[sizeClassOf(capacity)];
+        synchronized (global) {
+            return global.free.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("命中率：%.2f%%，未归还：%d，slab：%d，泄漏：%d",
+                hitRate() * 100, outstanding(), slabCount(), leakCount());
+    }
+}
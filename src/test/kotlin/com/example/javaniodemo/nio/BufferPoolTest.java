@@ -0,0 +1,150 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testSizeClass() {
+        Assertions.assertEquals(0, BufferPool.sizeClassOf(0));
+        Assertions.assertEquals(0, BufferPool.sizeClassOf(256));
+        Assertions.assertEquals(1, BufferPool.sizeClassOf(257));
+        Assertions.assertEquals(1, BufferPool.sizeClassOf(512));
+        Assertions.assertEquals(8, BufferPool.sizeClassOf(64 * 1024));
+        Assertions.assertEquals(-1, BufferPool.sizeClassOf(64 * 1024 + 1));
+    }
+
+    @Test
+    public void testReuse() {
+        final BufferPool pool = new BufferPool(false);
+        final BufferPool.PooledBuffer first = pool.acquire(100);
+        final ByteBuffer buffer = first.buffer();
+        Assertions.assertTrue(buffer.isDirect());
+        Assertions.assertEquals(0, buffer.position());
+        Assertions.assertEquals(100, buffer.limit());
+        Assertions.assertEquals(256, buffer.capacity());
+        buffer.put((byte) 1);
+        first.release();
+
+        // 同一个线程再借，拿到的是刚还回去的，并且已经清空了位置
+        final BufferPool.PooledBuffer second = pool.acquire(200);
+        Assertions.assertSame(buffer, second.buffer());
+        Assertions.assertEquals(0, second.buffer().position());
+        Assertions.assertEquals(200, second.buffer().limit());
+        Assertions.assertEquals(0.5, pool.hitRate());
+        Assertions.assertEquals(1, pool.outstanding());
+        second.release();
+        Assertions.assertEquals(0, pool.outstanding());
+    }
+
+    @Test
+    public void testDoubleRelease() {
+        final BufferPool pool = new BufferPool(false);
+        final BufferPool.PooledBuffer buffer = pool.acquire(10);
+        buffer.release();
+        Assertions.assertThrows(IllegalStateException.class, buffer::release);
+        Assertions.assertThrows(IllegalStateException.class, buffer::buffer);
+    }
+
+    /**
+     * 切出来的缓冲区互不重叠
+     */
+    @Test
+    public void testSlabSlices() {
+        final BufferPool pool = new BufferPool(false);
+        final int count = 1024 * 1024 / 4096 + 1;
+        final BufferPool.PooledBuffer[] buffers = new BufferPool.PooledBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = pool.acquire(4096);
+            buffers[i].buffer().putInt(0, i);
+        }
+        for (int i = 0; i < count; i++) {
+            Assertions.assertEquals(i, buffers[i].buffer().getInt(0));
+            buffers[i].release();
+        }
+        // 一个slab正好切256个，第257个要新的slab
+        Assertions.assertEquals(2, pool.slabCount());
+        Assertions.assertEquals(0, pool.outstanding());
+    }
+
+    /**
+     * 一个线程借、另一个线程还，超出线程缓存的部分进全局空闲列表，借的线程还能拿到
+     */
+    @Test
+    public void testCrossThreadRelease() throws Exception {
+        final BufferPool pool = new BufferPool(false);
+        final int count = 100;
+        final BufferPool.PooledBuffer[] buffers = new BufferPool.PooledBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = pool.acquire(1024);
+        }
+        final Thread releaser = new Thread(() -> {
+            for (BufferPool.PooledBuffer buffer : buffers) {
+                buffer.release();
+            }
+        });
+        releaser.start();
+        releaser.join();
+
+        // 还的线程缓存32个，剩下的进全局空闲列表
+        Assertions.assertEquals(0, pool.outstanding());
+        Assertions.assertEquals(count - 32, pool.globalFreeCount(1024));
+        final long slabs = pool.slabCount();
+        for (int i = 0; i < count - 32; i++) {
+            pool.acquire(1024);
+        }
+        Assertions.assertEquals(0, pool.globalFreeCount(1024));
+        Assertions.assertEquals(slabs, pool.slabCount());
+        Assertions.assertTrue(pool.hitRate() > 0);
+    }
+
+    /**
+     * 线程退出后，它缓存里的缓冲区要还回全局空闲列表，不然就丢了
+     */
+    @Test
+    public void testThreadCacheDrainedOnExit() throws Exception {
+        final BufferPool pool = new BufferPool(false);
+        final int count = 10;
+        runAndForget(() -> {
+            final BufferPool.PooledBuffer[] buffers = new BufferPool.PooledBuffer[count];
+            for (int i = 0; i < count; i++) {
+                buffers[i] = pool.acquire(1024);
+            }
+            for (BufferPool.PooledBuffer buffer : buffers) {
+                buffer.release();
+            }
+        });
+        Assertions.assertEquals(0, pool.outstanding());
+        for (int i = 0; i < 50 && pool.globalFreeCount(1024) < count; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(count, pool.globalFreeCount(1024));
+    }
+
+    /**
+     * 在单独的方法里面起线程，返回后没有任何地方引用这个Thread，才能被GC
+     */
+    private static void runAndForget(Runnable task) throws InterruptedException {
+        final Thread thread = new Thread(task);
+        thread.start();
+        thread.join();
+    }
+
+    @Test
+    public void testLeakDetection() throws Exception {
+        final BufferPool pool = new BufferPool(true);
+        pool.acquire(256).release();
+        // 借了不还，直接丢掉
+        pool.acquire(256);
+        for (int i = 0; i < 50 && pool.leakCount() == 0; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(1, pool.leakCount());
+        Assertions.assertEquals(0, pool.outstanding());
+    }
+}
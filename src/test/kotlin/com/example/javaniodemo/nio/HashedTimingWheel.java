@@ -0,0 +1,252 @@
+package com.example.javaniodemo.nio;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 哈希时间轮定时器，单线程使用，只在事件循环线程里面调用
+ * <p>
+ * - 时间被切成固定长度的tick，wheelSize个槽位循环使用，到期时间落在哪个tick就挂到哪个槽位的双向链表上
+ * - 超过一圈的定时任务记录剩余圈数，每转过一次减一
+ * - 添加、取消都是O(1)，10万个定时任务同时存在也不影响；代价是精度只有一个tick
+ * <p>
+ * 事件循环用{@link #millisToNextTick()}决定select阻塞多久，select返回后调用{@link #advance()}触发到期任务
+ */
+public class HashedTimingWheel {
+
+    /**
+     * 定时任务句柄
+     */
+    public final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private int state = PENDING;
+
+        /**
+         * 所在槽位，触发过程中从槽位上摘下来的时候为null
+         */
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消，O(1)
+         *
+         * @return 取消之前是否还在等待触发
+         */
+        public boolean cancel() {
+            if (state != PENDING) {
+                return false;
+            }
+            state = CANCELLED;
+            size--;
+            if (bucket != null) {
+                bucket.remove(this);
+            }
+            return true;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+    }
+
+    /**
+     * 槽位，双向链表
+     */
+    private static final class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        /**
+         * 把整个链表摘下来，返回原来的头
+         */
+        Timeout detach() {
+            final Timeout first = head;
+            for (Timeout t = first; t != null; t = t.next) {
+                t.bucket = null;
+            }
+            head = null;
+            tail = null;
+            return first;
+        }
+
+        boolean isEmpty() {
+            return head == null;
+        }
+    }
+
+    private final long tickMillis;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    /**
+     * 毫秒时钟，测试时可以换掉
+     */
+    private final LongSupplier clock;
+
+    /**
+     * 时间基准，内部的时间都是相对这个的毫秒数
+     */
+    private final long startMillis;
+
+    /**
+     * 下一个要处理的tick；tick t在相对时间到达t * tickMillis时处理
+     */
+    private long currentTick;
+
+    /**
+     * 还在等待触发的任务数
+     */
+    private int size;
+
+    /**
+     * @param tickMillis 精度
+     * @param wheelSize  槽位数，会向上取整到2的幂
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize) {
+        this(tickMillis, wheelSize, HashedTimingWheel::currentMillis);
+    }
+
+    HashedTimingWheel(long tickMillis, int wheelSize, LongSupplier clock) {
+        if (tickMillis <= 0 || wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException();
+        }
+        int normalized = 1;
+        while (normalized < wheelSize) {
+            normalized <<= 1;
+        }
+        this.tickMillis = tickMillis;
+        this.wheel = new Bucket[normalized];
+        for (int i = 0; i < normalized; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = normalized - 1;
+        this.clock = clock;
+        this.startMillis = clock.getAsLong();
+    }
+
+    /**
+     * 单调时钟，不受系统时间调整影响
+     */
+    static long currentMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    public Timeout schedule(Runnable task, long delayMillis) {
+        final long deadline = clock.getAsLong() - startMillis + Math.max(delayMillis, 0);
+        final Timeout timeout = new Timeout(task, deadline);
+        // 向上取整，保证处理到这个tick的时候一定已经到期
+        final long deadlineTick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick);
+        timeout.remainingRounds = (deadlineTick - currentTick) >> Integer.numberOfTrailingZeros(wheel.length);
+        wheel[(int) (deadlineTick & mask)].add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * 触发所有到期的任务
+     *
+     * @return 触发的任务数
+     */
+    public int advance() {
+        final long targetTick = (clock.getAsLong() - startMillis) / tickMillis;
+        int expired = 0;
+        while (currentTick <= targetTick && size > 0) {
+            final Bucket bucket = wheel[(int) (currentTick & mask)];
+            // 先推进tick再执行任务，任务里面新加的定时任务从下一个tick开始算
+            currentTick++;
+            Timeout timeout = bucket.detach();
+            while (timeout != null) {
+                final Timeout next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                if (timeout.state == Timeout.PENDING) {
+                    if (timeout.remainingRounds <= 0) {
+                        timeout.state = Timeout.EXPIRED;
+                        size--;
+                        expired++;
+                        try {
+                            timeout.task.run();
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                        }
+                    } else {
+                        timeout.remainingRounds--;
+                        bucket.add(timeout);
+                    }
+                }
+                timeout = next;
+            }
+        }
+        if (size == 0 && currentTick <= targetTick) {
+            // 空转的tick不用一个个走
+            currentTick = targetTick + 1;
+        }
+        return expired;
+    }
+
+    /**
+     * 距离下一个有任务的tick还有多少毫秒，事件循环用这个作为select的超时
+     *
+     * @return -1表示没有定时任务，可以一直阻塞；0表示已经有到期的
+     */
+    public long millisToNextTick() {
+        if (size == 0) {
+            return -1;
+        }
+        // 最多看一圈，找到最近一个非空的槽位；槽位里面的任务可能还要再转几圈，到时候醒来看一下就行
+        long tick = currentTick;
+        for (int i = 0; i < wheel.length; i++, tick++) {
+            if (!wheel[(int) (tick & mask)].isEmpty()) {
+                break;
+            }
+        }
+        return Math.max(tick * tickMillis - (clock.getAsLong() - startMillis), 0);
+    }
+
+    public int size() {
+        return size;
+    }
+}
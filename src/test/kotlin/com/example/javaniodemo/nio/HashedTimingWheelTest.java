@@ -0,0 +1,117 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class HashedTimingWheelTest {
+
+    AtomicLong now;
+    HashedTimingWheel timer;
+
+    @BeforeEach
+    public void setUp() {
+        now = new AtomicLong(1_000);
+        // 10ms一个tick，8个槽位一圈80ms
+        timer = new HashedTimingWheel(10, 8, now::get);
+    }
+
+    private int advanceTo(long millis) {
+        now.set(1_000 + millis);
+        return timer.advance();
+    }
+
+    @Test
+    public void testExpireOrder() {
+        final List<Integer> fired = new ArrayList<>();
+        timer.schedule(() -> fired.add(30), 30);
+        timer.schedule(() -> fired.add(5), 5);
+        timer.schedule(() -> fired.add(20), 20);
+
+        Assertions.assertEquals(0, advanceTo(9));
+        Assertions.assertEquals(1, advanceTo(10));
+        Assertions.assertEquals(1, advanceTo(25));
+        Assertions.assertEquals(1, advanceTo(30));
+        Assertions.assertEquals(List.of(5, 20, 30), fired);
+        Assertions.assertEquals(0, timer.size());
+    }
+
+    @Test
+    public void testCancel() {
+        final AtomicInteger fired = new AtomicInteger();
+        final HashedTimingWheel.Timeout first = timer.schedule(fired::incrementAndGet, 10);
+        final HashedTimingWheel.Timeout second = timer.schedule(fired::incrementAndGet, 10);
+        Assertions.assertTrue(first.cancel());
+        Assertions.assertFalse(first.cancel());
+        Assertions.assertEquals(1, timer.size());
+
+        Assertions.assertEquals(1, advanceTo(10));
+        Assertions.assertTrue(second.isExpired());
+        Assertions.assertFalse(second.cancel());
+        Assertions.assertEquals(1, fired.get());
+    }
+
+    /**
+     * 超过一圈的任务不会在第一圈提前触发
+     */
+    @Test
+    public void testRounds() {
+        final AtomicInteger fired = new AtomicInteger();
+        timer.schedule(fired::incrementAndGet, 250);
+
+        Assertions.assertEquals(0, advanceTo(80));
+        Assertions.assertEquals(0, advanceTo(170));
+        Assertions.assertEquals(0, advanceTo(249));
+        Assertions.assertEquals(1, advanceTo(250));
+        Assertions.assertEquals(1, fired.get());
+    }
+
+    @Test
+    public void testMillisToNextTick() {
+        Assertions.assertEquals(-1, timer.millisToNextTick());
+        timer.schedule(() -> {
+        }, 35);
+        // 向上取整到40ms那个tick
+        Assertions.assertEquals(40, timer.millisToNextTick());
+        now.addAndGet(15);
+        Assertions.assertEquals(25, timer.millisToNextTick());
+        now.addAndGet(100);
+        Assertions.assertEquals(0, timer.millisToNextTick());
+    }
+
+    /**
+     * 任务里面再加定时任务，从下一个tick开始算
+     */
+    @Test
+    public void testScheduleInsideTask() {
+        final List<Long> fired = new ArrayList<>();
+        timer.schedule(() -> timer.schedule(() -> fired.add(now.get() - 1_000), 0), 10);
+        Assertions.assertEquals(1, advanceTo(10));
+        Assertions.assertEquals(1, advanceTo(20));
+        Assertions.assertEquals(List.of(20L), fired);
+    }
+
+    @Test
+    public void testManyTimeouts() {
+        final int count = 100_000;
+        final AtomicInteger fired = new AtomicInteger();
+        final List<HashedTimingWheel.Timeout> timeouts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            timeouts.add(timer.schedule(fired::incrementAndGet, i % 1_000));
+        }
+        // 一半取消掉，比如请求提前完成
+        for (int i = 0; i < count; i += 2) {
+            timeouts.get(i).cancel();
+        }
+        Assertions.assertEquals(count / 2, timer.size());
+        Assertions.assertEquals(count / 2, advanceTo(1_000));
+        Assertions.assertEquals(count / 2, fired.get());
+        Assertions.assertEquals(0, timer.size());
+        Assertions.assertEquals(-1, timer.millisToNextTick());
+    }
+}
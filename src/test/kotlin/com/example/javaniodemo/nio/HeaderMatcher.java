@@ -0,0 +1,262 @@
+package com.example.javaniodemo.nio;
+
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link HttpRequestParser}、{@link HttpResponseParser}共用的header解析，按字节推进
+ * <p>
+ * - 名称：按字节和关心的几个名称比对，忽略大小写，还能匹配上的候选按位存
+ * - 值：只解析关心的header，Content-Length、Transfer-Encoding、Connection，结果攒到整个header区结束
+ * - 不产生任何对象
+ * <p>
+ * 解析器把冒号前的名称逐字节喂给{@link #name}，冒号时调{@link #endName}，
+ * 冒号后的值逐字节喂给{@link #value}，行尾调{@link #endValue}；\r\n不喂进来
+ */
+final class HeaderMatcher {
+
+    /**
+     * 请求行、状态行、单个header的长度上限，防止恶意的对端
+     */
+    static final int MAX_LINE_LENGTH = 8192;
+
+    /**
+     * 关心的header名称，全部小写，比对时忽略大小写
+     */
+    private static final byte[][] KNOWN_HEADERS = {
+            "content-length".getBytes(StandardCharsets.US_ASCII),
+            "transfer-encoding".getBytes(StandardCharsets.US_ASCII),
+            "connection".getBytes(StandardCharsets.US_ASCII),
+    };
+    private static final int CONTENT_LENGTH = 0;
+    private static final int TRANSFER_ENCODING = 1;
+    private static final int CONNECTION = 2;
+    private static final int NO_HEADER = -1;
+
+    private static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * true：重复的Content-Length只要值一样就接受；false：重复了就是协议错误
+     */
+    private final boolean allowRepeatedContentLength;
+
+    /**
+     * 当前名称或值已经读了多少字节
+     */
+    private int length;
+
+    /**
+     * 当前header名称还能匹配上的候选，按位存
+     */
+    private int candidates;
+
+    /**
+     * 当前header匹配到的名称
+     */
+    private int current;
+
+    /**
+     * 当前值和期望值匹配了多少字节，-1表示匹配失败；Connection的值是逗号分隔的多个选项，close、keep-alive分开记；
+     * Content-Length用来记已经读了几位数字，-1表示数字后面出现过空白
+     */
+    private int valueMatched;
+    private int keepAliveMatched;
+
+    /**
+     * 当前这个Content-Length header的值，header结束时再和前面的比对
+     */
+    private long headerContentLength;
+
+    private long contentLength;
+    private boolean hasContentLength;
+    private boolean hasTransferEncoding;
+    private boolean chunked;
+    private boolean connectionClose;
+    private boolean connectionKeepAlive;
+
+    HeaderMatcher(boolean allowRepeatedContentLength) {
+        this.allowRepeatedContentLength = allowRepeatedContentLength;
+        reset();
+    }
+
+    /**
+     * 冒号前的一个字节
+     */
+    void name(byte b) throws ProtocolException {
+        checkLineLength(length);
+        final byte lower = toLowerCase(b);
+        for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+            final byte[] name = KNOWN_HEADERS[i];
+            if (length >= name.length || name[length] != lower) {
+                candidates &= ~(1 << i);
+            }
+        }
+        length++;
+    }
+
+    /**
+     * 当前行还没有读到名称的任何字节，在header区里就是结束header的空行
+     */
+    boolean isNameEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * 读到冒号，确定是哪个header
+     */
+    void endName() throws ProtocolException {
+        for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+            if ((candidates & (1 << i)) != 0 && KNOWN_HEADERS[i].length == length) {
+                current = i;
+            }
+        }
+        if (current == CONTENT_LENGTH && hasContentLength && !allowRepeatedContentLength) {
+            throw new ProtocolException("Content-Length重复");
+        }
+        length = 0;
+    }
+
+    /**
+     * 冒号后的一个字节
+     */
+    void value(byte b) throws ProtocolException {
+        if (length == 0 && (b == ' ' || b == '\t')) {
+            // 冒号后面的空白不算值
+            return;
+        }
+        checkLineLength(length);
+        length++;
+        switch (current) {
+            case CONTENT_LENGTH:
+                if (b == ' ' || b == '\t') {
+                    // 只允许结尾的空白，"1 2"这种不合法
+                    valueMatched = -1;
+                    return;
+                }
+                if (b < '0' || b > '9' || valueMatched < 0 || headerContentLength > (Long.MAX_VALUE - 9) / 10) {
+                    throw new ProtocolException("Content-Length不合法");
+                }
+                headerContentLength = headerContentLength * 10 + (b - '0');
+                valueMatched++;
+                break;
+            case TRANSFER_ENCODING:
+                // 只认最后一个编码，"gzip, chunked"也算chunked
+                if (b == ',') {
+                    valueMatched = 0;
+                } else if (b != ' ' && b != '\t') {
+                    valueMatched = matchNext(CHUNKED, valueMatched, b);
+                }
+                break;
+            case CONNECTION:
+                if (b == ',') {
+                    endConnectionOption();
+                } else if (b != ' ' && b != '\t') {
+                    valueMatched = matchNext(CLOSE, valueMatched, b);
+                    keepAliveMatched = matchNext(KEEP_ALIVE, keepAliveMatched, b);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * 一个header读完了，准备下一个
+     */
+    void endValue() throws ProtocolException {
+        switch (current) {
+            case CONTENT_LENGTH:
+                if (valueMatched == 0 || hasContentLength && headerContentLength != contentLength) {
+                    throw new ProtocolException("Content-Length不合法");
+                }
+                contentLength = headerContentLength;
+                hasContentLength = true;
+                break;
+            case TRANSFER_ENCODING:
+                hasTransferEncoding = true;
+                chunked = valueMatched == CHUNKED.length;
+                break;
+            case CONNECTION:
+                endConnectionOption();
+                break;
+            default:
+                break;
+        }
+        startHeader();
+    }
+
+    private void endConnectionOption() {
+        connectionClose |= valueMatched == CLOSE.length;
+        connectionKeepAlive |= keepAliveMatched == KEEP_ALIVE.length;
+        valueMatched = 0;
+        keepAliveMatched = 0;
+    }
+
+    private void startHeader() {
+        length = 0;
+        candidates = (1 << KNOWN_HEADERS.length) - 1;
+        current = NO_HEADER;
+        valueMatched = 0;
+        keepAliveMatched = 0;
+        headerContentLength = 0;
+    }
+
+    long contentLength() {
+        return contentLength;
+    }
+
+    boolean hasContentLength() {
+        return hasContentLength;
+    }
+
+    boolean hasTransferEncoding() {
+        return hasTransferEncoding;
+    }
+
+    /**
+     * 最后一个Transfer-Encoding的最后一个编码是chunked
+     */
+    boolean isChunked() {
+        return chunked;
+    }
+
+    boolean isConnectionClose() {
+        return connectionClose;
+    }
+
+    boolean isConnectionKeepAlive() {
+        return connectionKeepAlive;
+    }
+
+    /**
+     * 重置状态，解析下一个消息的header
+     */
+    void reset() {
+        startHeader();
+        contentLength = 0;
+        hasContentLength = false;
+        hasTransferEncoding = false;
+        chunked = false;
+        connectionClose = false;
+        connectionKeepAlive = false;
+    }
+
+    static void checkLineLength(int lineLength) throws ProtocolException {
+        if (lineLength >= MAX_LINE_LENGTH) {
+            throw new ProtocolException("行过长");
+        }
+    }
+
+    private static int matchNext(byte[] expected, int matched, byte b) {
+        if (matched < 0 || matched >= expected.length || expected[matched] != toLowerCase(b)) {
+            return -1;
+        }
+        return matched + 1;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+}
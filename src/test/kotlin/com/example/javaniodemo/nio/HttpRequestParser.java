@@ -0,0 +1,251 @@
+package com.example.javaniodemo.nio;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 增量式http/1.1请求解析器，按字节推进的状态机，{@link NioHttpServer}用，和{@link HttpResponseParser}是一对
+ * <p>
+ * - 半包：数据可以分多次OP_READ喂进来，解析状态保存在解析器里面，下次接着解析
+ * - 流水线：一个请求解析完成后立即停止消费，ByteBuffer里面剩下的字节留给下一个请求
+ * - body：只支持Content-Length，直接跳过不保存（现在的路由都用不到）；chunked的请求体按协议错误处理
+ * - Content-Length只能有一个：重复的不管值一不一样都按协议错误处理，免得和前面的代理对请求边界的理解不一致
+ * - 解析header时不产生任何对象，header名称按字节和候选名称比对，只在请求完成时生成一次路径字符串
+ * <p>
+ * 非线程安全，只在事件循环线程里面用；解析完成后reset()可以复用
+ */
+public class HttpRequestParser {
+
+    private static final int REQUEST_LINE = 0;
+    private static final int HEADER_NAME = 1;
+    private static final int HEADER_VALUE = 2;
+    private static final int BODY = 3;
+    private static final int DONE = 4;
+
+    private static final byte[] HEAD = "HEAD".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP_1 = "HTTP/1.".getBytes(StandardCharsets.US_ASCII);
+
+    private int state = REQUEST_LINE;
+
+    /**
+     * 请求行已经读了多少字节
+     */
+    private int lineLength;
+
+    /**
+     * 请求行里面第几个空格，0：方法，1：请求目标，2：协议版本
+     */
+    private int spaceCount;
+
+    /**
+     * 请求行当前这一段已经读了多少字节
+     */
+    private int partLength;
+
+    /**
+     * 方法和HEAD匹配了多少字节，-1表示匹配失败
+     */
+    private int methodMatched;
+
+    /**
+     * 请求目标，请求之间复用，只在路径变长时扩容；每个连接一个解析器，初始不要太大
+     */
+    private byte[] target = new byte[64];
+    private int targetLength;
+
+    private int versionMatched;
+    private int httpMinorVersion = -1;
+
+    private final HeaderMatcher headers = new HeaderMatcher(false);
+
+    /**
+     * 请求体剩余未跳过的字节数
+     */
+    private long remaining;
+
+    /**
+     * 解析读到的数据
+     *
+     * @param in 读模式的buffer，解析完成时停在下一个请求的起始位置
+     * @return 一个完整请求是否已经解析完成
+     */
+    public boolean parse(ByteBuffer in) throws ProtocolException {
+        while (state != DONE && in.hasRemaining()) {
+            switch (state) {
+                case REQUEST_LINE:
+                    parseRequestLine(in.get());
+                    break;
+                case HEADER_NAME:
+                    parseHeaderName(in.get());
+                    break;
+                case HEADER_VALUE:
+                    parseHeaderValue(in.get());
+                    break;
+                case BODY:
+                    final int n = (int) Math.min(remaining, in.remaining());
+                    in.position(in.position() + n);
+                    remaining -= n;
+                    if (remaining == 0) {
+                        state = DONE;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("state: " + state);
+            }
+        }
+        return state == DONE;
+    }
+
+    /**
+     * 是否在两个请求之间，没有读到下一个请求的任何字节
+     * <p>
+     * 这时候客户端关闭连接是正常的；读到一半关闭说明请求不完整
+     */
+    public boolean isIdle() {
+        return state == REQUEST_LINE && lineLength == 0;
+    }
+
+    private void parseRequestLine(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            if (lineLength == 0) {
+                // 请求之间多出来的空行，协议要求忽略
+                return;
+            }
+            if (spaceCount != 2 || targetLength == 0 || versionMatched != HTTP_1.length || httpMinorVersion < 0
+                    || partLength != HTTP_1.length + 1) {
+                throw new ProtocolException("请求行不合法");
+            }
+            lineLength = 0;
+            state = HEADER_NAME;
+            return;
+        }
+        HeaderMatcher.checkLineLength(lineLength);
+        lineLength++;
+        if (b == ' ') {
+            spaceCount++;
+            partLength = 0;
+            return;
+        }
+        switch (spaceCount) {
+            case 0:
+                // 方法区分大小写
+                methodMatched = methodMatched >= 0 && methodMatched < HEAD.length && HEAD[methodMatched] == b ? methodMatched + 1 : -1;
+                break;
+            case 1:
+                if (targetLength == target.length) {
+                    target = Arrays.copyOf(target, target.length * 2);
+                }
+                target[targetLength++] = b;
+                break;
+            case 2:
+                if (partLength < HTTP_1.length) {
+                    if (versionMatched == partLength && HTTP_1[partLength] == b) {
+                        versionMatched++;
+                    }
+                } else if (partLength == HTTP_1.length && b >= '0' && b <= '9') {
+                    httpMinorVersion = b - '0';
+                }
+                break;
+            default:
+                throw new ProtocolException("请求行不合法");
+        }
+        partLength++;
+    }
+
+    private void parseHeaderName(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            if (!headers.isNameEmpty()) {
+                throw new ProtocolException("header缺少冒号");
+            }
+            endHeaders();
+            return;
+        }
+        if (b == ':') {
+            headers.endName();
+            state = HEADER_VALUE;
+            return;
+        }
+        headers.name(b);
+    }
+
+    private void parseHeaderValue(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            headers.endValue();
+            state = HEADER_NAME;
+            return;
+        }
+        headers.value(b);
+    }
+
+    private void endHeaders() throws ProtocolException {
+        if (headers.hasTransferEncoding()) {
+            // 有Transfer-Encoding就得按chunked读，不支持
+            throw new ProtocolException("不支持Transfer-Encoding的请求体");
+        }
+        remaining = headers.contentLength();
+        state = remaining == 0 ? DONE : BODY;
+    }
+
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * HEAD请求的响应只有header
+     */
+    public boolean isHead() {
+        return methodMatched == HEAD.length;
+    }
+
+    /**
+     * 响应之后连接是否还能复用：1.1默认复用，1.0要显式带keep-alive
+     */
+    public boolean isKeepAlive() {
+        if (headers.isConnectionClose()) {
+            return false;
+        }
+        return httpMinorVersion >= 1 || headers.isConnectionKeepAlive();
+    }
+
+    public int httpMinorVersion() {
+        return httpMinorVersion;
+    }
+
+    /**
+     * 请求路径，去掉了查询参数；每个请求只在这里产生一次String
+     */
+    public String path() {
+        int length = 0;
+        while (length < targetLength && target[length] != '?') {
+            length++;
+        }
+        return new String(target, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 重置状态，解析下一个请求
+     */
+    public void reset() {
+        state = REQUEST_LINE;
+        lineLength = 0;
+        spaceCount = 0;
+        partLength = 0;
+        methodMatched = 0;
+        targetLength = 0;
+        versionMatched = 0;
+        httpMinorVersion = -1;
+        headers.reset();
+        remaining = 0;
+    }
+}
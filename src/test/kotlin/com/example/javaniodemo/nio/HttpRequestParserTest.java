@@ -0,0 +1,138 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class HttpRequestParserTest {
+
+    private static final String GET = "GET /delay/100?x=1 HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "\r\n";
+
+    private static final String POST = "POST / HTTP/1.1\r\n" +
+            "content-length: 5\r\n" +
+            "Connection: Upgrade, close\r\n" +
+            "\r\n" +
+            "hello";
+
+    @Test
+    public void testRequestLine() throws Exception {
+        final HttpRequestParser parser = new HttpRequestParser();
+        Assertions.assertTrue(parser.parse(buffer(GET)));
+        Assertions.assertEquals("/delay/100", parser.path());
+        Assertions.assertEquals(1, parser.httpMinorVersion());
+        Assertions.assertTrue(parser.isKeepAlive());
+        Assertions.assertFalse(parser.isHead());
+    }
+
+    @Test
+    public void testBodyAndConnectionClose() throws Exception {
+        final HttpRequestParser parser = new HttpRequestParser();
+        final ByteBuffer in = buffer(POST);
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertFalse(in.hasRemaining());
+        Assertions.assertEquals("/", parser.path());
+        Assertions.assertFalse(parser.isKeepAlive());
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        final HttpRequestParser parser = new HttpRequestParser();
+        Assertions.assertTrue(parser.parse(buffer("GET / HTTP/1.0\r\n\r\n")));
+        Assertions.assertFalse(parser.isKeepAlive());
+        parser.reset();
+        Assertions.assertTrue(parser.parse(buffer("HEAD / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n")));
+        Assertions.assertTrue(parser.isKeepAlive());
+        Assertions.assertTrue(parser.isHead());
+    }
+
+    /**
+     * 半包：每次只喂一个字节
+     */
+    @Test
+    public void testPartialReads() throws Exception {
+        for (String request : new String[]{GET, POST}) {
+            final HttpRequestParser parser = new HttpRequestParser();
+            final ByteBuffer all = buffer(request);
+            boolean done = false;
+            while (all.hasRemaining()) {
+                Assertions.assertFalse(done);
+                final ByteBuffer one = ByteBuffer.allocate(1);
+                one.put(all.get()).flip();
+                done = parser.parse(one);
+            }
+            Assertions.assertTrue(done);
+        }
+    }
+
+    /**
+     * 流水线：多个请求在同一个buffer里面，reset后接着解析；请求之间的空行忽略
+     */
+    @Test
+    public void testPipelinedRequests() throws Exception {
+        final HttpRequestParser parser = new HttpRequestParser();
+        final ByteBuffer in = buffer(GET + "\r\n" + POST + GET);
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertEquals("/delay/100", parser.path());
+        parser.reset();
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertEquals("/", parser.path());
+        parser.reset();
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertEquals("/delay/100", parser.path());
+        Assertions.assertFalse(in.hasRemaining());
+        parser.reset();
+        Assertions.assertTrue(parser.isIdle());
+    }
+
+    @Test
+    public void testLongPath() throws Exception {
+        final String path = "/" + "a".repeat(5000);
+        final HttpRequestParser parser = new HttpRequestParser();
+        Assertions.assertTrue(parser.parse(buffer("GET " + path + " HTTP/1.1\r\n\r\n")));
+        Assertions.assertEquals(path, parser.path());
+    }
+
+    @Test
+    public void testMalformed() {
+        for (String request : new String[]{
+                "GET /\r\n\r\n",
+                "GET / HTTP/2.0\r\n\r\n",
+                "GET / HTTP/1.1\r\nno-colon\r\n\r\n",
+                "GET / HTTP/1.1\r\nContent-Length: -1\r\n\r\n",
+                "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n",
+                "GET /" + "a".repeat(10_000) + " HTTP/1.1\r\n\r\n",
+        }) {
+            Assertions.assertThrows(ProtocolException.class, () -> new HttpRequestParser().parse(buffer(request)), request);
+        }
+    }
+
+    /**
+     * Content-Length只能有一个：重复的不能拼起来（5、5不能成55），值一样的也不接受
+     */
+    @Test
+    public void testDuplicateContentLength() throws Exception {
+        for (String request : new String[]{
+                "POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\nhello",
+                "POST / HTTP/1.1\r\nContent-Length: 5\r\ncontent-length: 6\r\n\r\nhello!",
+                "POST / HTTP/1.1\r\nContent-Length: 5, 5\r\n\r\nhello",
+                "POST / HTTP/1.1\r\nContent-Length: 1 2\r\n\r\nhello world!",
+                "POST / HTTP/1.1\r\nContent-Length:\r\n\r\n",
+        }) {
+            Assertions.assertThrows(ProtocolException.class, () -> new HttpRequestParser().parse(buffer(request)), request);
+        }
+        // 值后面的空白可以有
+        final HttpRequestParser parser = new HttpRequestParser();
+        final ByteBuffer in = buffer("POST / HTTP/1.1\r\nContent-Length: 5 \r\n\r\nhelloGET / HTTP/1.1\r\n\r\n");
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertEquals('G', in.get(in.position()));
+    }
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
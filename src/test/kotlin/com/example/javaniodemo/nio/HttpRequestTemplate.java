@@ -0,0 +1,146 @@
+package com.example.javaniodemo.nio;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 预编码的http/1.1请求模板，不可变，可以在多个线程之间共用
+ * <p>
+ * 请求里面不变的部分（请求行、Host、公共header）在创建模板时编码一次，存成只读的堆外缓冲区；
+ * 每次请求只duplicate这些缓冲区，和可变的部分（路径参数、额外的header）按顺序拼成数组，
+ * 交给一次gathering write发出去，热路径上没有String拼接和编码
+ * <p>
+ * 路径里面的{}是占位符，比如"/delay/{}"，按顺序用{@link #request(ByteBuffer[], ByteBuffer...)}的参数填上；
+ * 可变部分自己用{@link #encode}、{@link #header}提前编码好，能缓存的就缓存
+ */
+public final class HttpRequestTemplate {
+
+    private static final ByteBuffer CRLF = encode("\r\n");
+
+    private static final ByteBuffer[] NO_BUFFERS = new ByteBuffer[0];
+
+    /**
+     * 占位符之间的静态片段，比占位符多一个；最后一个片段包含请求行的结尾、Host和公共header
+     */
+    private final ByteBuffer[] segments;
+
+    private HttpRequestTemplate(ByteBuffer[] segments) {
+        this.segments = segments;
+    }
+
+    public static HttpRequestTemplate get(String path, InetSocketAddress host, String... headers) {
+        return of("GET", path, host, headers);
+    }
+
+    /**
+     * @param headers 公共header，每个是完整的"Name: value"
+     */
+    public static HttpRequestTemplate of(String method, String path, InetSocketAddress host, String... headers) {
+        final String[] parts = path.split("\\{}", -1);
+        final ByteBuffer[] segments = new ByteBuffer[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            final StringBuilder segment = new StringBuilder();
+            if (i == 0) {
+                segment.append(method).append(' ');
+            }
+            segment.append(parts[i]);
+            if (i == parts.length - 1) {
+                segment.append(" HTTP/1.1\r\nHost: ").append(host.getHostString()).append(':').append(host.getPort()).append("\r\n");
+                for (String header : headers) {
+                    segment.append(header).append("\r\n");
+                }
+            }
+            segments[i] = encode(segment.toString());
+        }
+        return new HttpRequestTemplate(segments);
+    }
+
+    /**
+     * 编码成只读的堆外缓冲区，只在准备阶段用
+     */
+    public static ByteBuffer encode(String s) {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * 编码一个header，带结尾的CRLF
+     */
+    public static ByteBuffer header(String name, String value) {
+        return encode(name + ": " + value + "\r\n");
+    }
+
+    public int variableCount() {
+        return segments.length - 1;
+    }
+
+    /**
+     * 没有占位符、没有额外header的请求
+     */
+    public ByteBuffer[] request() {
+        return request(NO_BUFFERS);
+    }
+
+    /**
+     * 拼出一次请求，每次调用都返回新的数组和新的position，可以并发调用
+     *
+     * @param variables    按顺序填占位符
+     * @param extraHeaders 这次请求额外的header，每个都是{@link #header}的结果
+     */
+    public ByteBuffer[] request(ByteBuffer[] variables, ByteBuffer... extraHeaders) {
+        if (variables.length != variableCount()) {
+            throw new IllegalArgumentException("expect " + variableCount() + " variables, got " + variables.length);
+        }
+        final ByteBuffer[] buffers = new ByteBuffer[segments.length + variables.length + extraHeaders.length + 1];
+        int index = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                buffers[index++] = variables[i - 1].duplicate();
+            }
+            buffers[index++] = segments[i].duplicate();
+        }
+        for (ByteBuffer header : extraHeaders) {
+            buffers[index++] = header.duplicate();
+        }
+        buffers[index] = CRLF.duplicate();
+        return buffers;
+    }
+
+    /**
+     * 给只能写byte[]的阻塞io用，调用方自己缓存结果
+     */
+    public static byte[] toByteArray(ByteBuffer[] request) {
+        final byte[] bytes = new byte[(int) remaining(request)];
+        int offset = 0;
+        for (ByteBuffer buffer : request) {
+            final int length = buffer.remaining();
+            buffer.duplicate().get(bytes, offset, length);
+            offset += length;
+        }
+        return bytes;
+    }
+
+    public static long remaining(ByteBuffer[] buffers) {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    /**
+     * gathering write是否还没写完
+     */
+    public static boolean hasRemaining(ByteBuffer[] buffers) {
+        // 按顺序写，从后往前找更快
+        for (int i = buffers.length - 1; i >= 0; i--) {
+            if (buffers[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.nio.charset.StandardCharsets;
+
+public class HttpRequestTemplateTest {
+
+    static final InetSocketAddress SERVER = new InetSocketAddress("localhost", 8080);
+
+    private static String toString(ByteBuffer[] request) {
+        return new String(HttpRequestTemplate.toByteArray(request), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testStatic() {
+        final HttpRequestTemplate template = HttpRequestTemplate.get("/delay5s", SERVER, "Accept: */*");
+        Assertions.assertEquals(0, template.variableCount());
+        Assertions.assertEquals("GET /delay5s HTTP/1.1\r\nHost: localhost:8080\r\nAccept: */*\r\n\r\n",
+                toString(template.request()));
+    }
+
+    @Test
+    public void testVariables() {
+        final HttpRequestTemplate template = HttpRequestTemplate.get("/delay/{}?unit={}", SERVER);
+        Assertions.assertEquals(2, template.variableCount());
+        final ByteBuffer[] request = template.request(
+                new ByteBuffer[]{HttpRequestTemplate.encode("50"), HttpRequestTemplate.encode("ms")},
+                HttpRequestTemplate.header("X-Request-Id", "1"));
+        Assertions.assertEquals("GET /delay/50?unit=ms HTTP/1.1\r\nHost: localhost:8080\r\nX-Request-Id: 1\r\n\r\n",
+                toString(request));
+        Assertions.assertThrows(IllegalArgumentException.class, template::request);
+    }
+
+    /**
+     * 每次请求各自的position，写完一个不影响下一个；模板里面的缓冲区只读
+     */
+    @Test
+    public void testIndependentRequests() {
+        final HttpRequestTemplate template = HttpRequestTemplate.get("/", SERVER);
+        final ByteBuffer[] first = template.request();
+        final long length = HttpRequestTemplate.remaining(first);
+        for (ByteBuffer buffer : first) {
+            Assertions.assertTrue(buffer.isDirect());
+            Assertions.assertThrows(ReadOnlyBufferException.class, () -> buffer.put(0, (byte) 'x'));
+            buffer.position(buffer.limit());
+        }
+        Assertions.assertFalse(HttpRequestTemplate.hasRemaining(first));
+        final ByteBuffer[] second = template.request();
+        Assertions.assertTrue(HttpRequestTemplate.hasRemaining(second));
+        Assertions.assertEquals(length, HttpRequestTemplate.remaining(second));
+    }
+}
@@ -0,0 +1,336 @@
+package com.example.javaniodemo.nio;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 增量式http/1.1响应解析器，按字节推进的状态机
+ * <p>
+ * - 半包：数据可以分多次OP_READ喂进来，解析状态保存在解析器里面，下次接着解析
+ * - 粘包：一个响应解析完成后立即停止消费，ByteBuffer里面剩下的字节留给下一个响应
+ * - body：支持Content-Length、chunked、读到连接关闭三种形式；body数组随着数据到达扩容，不按header预先分配
+ * - 1xx：100 Continue、103 Early Hints这种中间响应直接跳过，接着解析后面的最终响应
+ * - 重复的Content-Length值不一样时按协议错误处理，不然会把后面的响应错位
+ * - 解析header时不产生任何对象，header名称按字节和候选名称比对，只在响应完成时生成一次body字符串
+ * <p>
+ * 非线程安全，只在事件循环线程里面用；解析完成后reset()可以复用
+ */
+public class HttpResponseParser {
+
+    private static final int STATUS_LINE = 0;
+    private static final int HEADER_NAME = 1;
+    private static final int HEADER_VALUE = 2;
+    private static final int BODY_FIXED = 3;
+    private static final int CHUNK_SIZE = 4;
+    private static final int CHUNK_EXTENSION = 5;
+    private static final int CHUNK_DATA = 6;
+    private static final int CHUNK_DATA_END = 7;
+    private static final int TRAILER = 8;
+    private static final int BODY_UNTIL_CLOSE = 9;
+    private static final int DONE = 10;
+
+    private int state = STATUS_LINE;
+
+    /**
+     * 当前行已经读了多少字节
+     */
+    private int lineLength;
+
+    /**
+     * 状态行里面第几个空格
+     */
+    private int spaceCount;
+
+    private final HeaderMatcher headers = new HeaderMatcher(true);
+
+    private int statusCode;
+    private int httpMinorVersion;
+
+    /**
+     * 带了Connection: close，或者body要读到连接关闭为止
+     */
+    private boolean connectionClose;
+
+    /**
+     * Content-Length或当前chunk剩余未读的字节数
+     */
+    private long remaining;
+
+    /**
+     * body暂存，响应之间复用，只在body变大时扩容
+     */
+    private byte[] body = new byte[256];
+    private int bodyLength;
+
+    /**
+     * 解析读到的数据
+     *
+     * @param in 读模式的buffer，解析完成时停在下一个响应的起始位置
+     * @return 一个完整响应是否已经解析完成
+     */
+    public boolean parse(ByteBuffer in) throws ProtocolException {
+        while (state != DONE && in.hasRemaining()) {
+            switch (state) {
+                case STATUS_LINE:
+                    parseStatusLine(in.get());
+                    break;
+                case HEADER_NAME:
+                    parseHeaderName(in.get());
+                    break;
+                case HEADER_VALUE:
+                    parseHeaderValue(in.get());
+                    break;
+                case BODY_FIXED:
+                    readBody(in);
+                    if (remaining == 0) {
+                        state = DONE;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    parseChunkSize(in.get());
+                    break;
+                case CHUNK_EXTENSION:
+                    if (in.get() == '\n') {
+                        endChunkSize();
+                    }
+                    break;
+                case CHUNK_DATA:
+                    readBody(in);
+                    if (remaining == 0) {
+                        state = CHUNK_DATA_END;
+                    }
+                    break;
+                case CHUNK_DATA_END:
+                    if (in.get() == '\n') {
+                        state = CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILER:
+                    parseTrailer(in.get());
+                    break;
+                case BODY_UNTIL_CLOSE:
+                    remaining = in.remaining();
+                    readBody(in);
+                    break;
+                default:
+                    throw new IllegalStateException("state: " + state);
+            }
+        }
+        return state == DONE;
+    }
+
+    /**
+     * 对端关闭了连接（read返回-1）
+     * <p>
+     * 没有Content-Length、也不是chunked的响应靠这个结束
+     *
+     * @return 响应是否完整
+     */
+    public boolean endOfStream() throws ProtocolException {
+        if (state == BODY_UNTIL_CLOSE) {
+            state = DONE;
+        }
+        if (state != DONE) {
+            throw new ProtocolException("连接在响应完成前被关闭，state: " + state);
+        }
+        return true;
+    }
+
+    private void parseStatusLine(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            if (statusCode < 100) {
+                throw new ProtocolException("状态行不完整");
+            }
+            lineLength = 0;
+            state = HEADER_NAME;
+            return;
+        }
+        HeaderMatcher.checkLineLength(lineLength);
+        if (b == ' ') {
+            spaceCount++;
+        } else if (spaceCount == 0 && lineLength == 7) {
+            // HTTP/1.x 的x
+            httpMinorVersion = b - '0';
+        } else if (spaceCount == 1) {
+            if (b < '0' || b > '9') {
+                throw new ProtocolException("状态码不合法");
+            }
+            statusCode = statusCode * 10 + (b - '0');
+        }
+        lineLength++;
+    }
+
+    private void parseHeaderName(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            if (!headers.isNameEmpty()) {
+                throw new ProtocolException("header缺少冒号");
+            }
+            endHeaders();
+            return;
+        }
+        if (b == ':') {
+            headers.endName();
+            state = HEADER_VALUE;
+            return;
+        }
+        headers.name(b);
+    }
+
+    private void parseHeaderValue(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            headers.endValue();
+            state = HEADER_NAME;
+            return;
+        }
+        headers.value(b);
+    }
+
+    private void endHeaders() throws ProtocolException {
+        if (statusCode == 101) {
+            throw new ProtocolException("不支持协议升级");
+        }
+        if (statusCode < 200) {
+            // 中间响应没有body，后面还跟着最终响应
+            reset();
+            return;
+        }
+        connectionClose = headers.isConnectionClose();
+        if (statusCode == 204 || statusCode == 304) {
+            state = DONE;
+        } else if (headers.isChunked()) {
+            state = CHUNK_SIZE;
+        } else if (headers.hasContentLength()) {
+            checkBodyLength(headers.contentLength());
+            remaining = headers.contentLength();
+            state = remaining == 0 ? DONE : BODY_FIXED;
+        } else {
+            // 既没有Content-Length也不是chunked，只能读到连接关闭为止
+            connectionClose = true;
+            state = BODY_UNTIL_CLOSE;
+        }
+    }
+
+    private void parseChunkSize(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            endChunkSize();
+            return;
+        }
+        if (b == ';' || b == ' ' || b == '\t') {
+            state = CHUNK_EXTENSION;
+            return;
+        }
+        final int digit = Character.digit(b, 16);
+        if (digit < 0 || remaining > (Long.MAX_VALUE >> 4)) {
+            throw new ProtocolException("chunk长度不合法");
+        }
+        remaining = (remaining << 4) + digit;
+    }
+
+    private void endChunkSize() throws ProtocolException {
+        if (remaining == 0) {
+            lineLength = 0;
+            state = TRAILER;
+        } else {
+            checkBodyLength(bodyLength + remaining);
+            state = CHUNK_DATA;
+        }
+    }
+
+    private void parseTrailer(byte b) throws ProtocolException {
+        if (b == '\r') {
+            return;
+        }
+        if (b == '\n') {
+            if (lineLength == 0) {
+                state = DONE;
+            }
+            lineLength = 0;
+            return;
+        }
+        HeaderMatcher.checkLineLength(lineLength);
+        lineLength++;
+    }
+
+    /**
+     * body直接批量拷贝，不逐字节处理
+     */
+    private void readBody(ByteBuffer in) throws ProtocolException {
+        final int n = (int) Math.min(remaining, in.remaining());
+        ensureBodyCapacity((long) bodyLength + n);
+        in.get(body, bodyLength, n);
+        bodyLength += n;
+        remaining -= n;
+    }
+
+    /**
+     * 只检查header声明的长度，不分配；数组在数据真正到达时才扩容
+     */
+    private static void checkBodyLength(long length) throws ProtocolException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new ProtocolException("body过大: " + length);
+        }
+    }
+
+    private void ensureBodyCapacity(long capacity) throws ProtocolException {
+        checkBodyLength(capacity);
+        if (capacity > body.length) {
+            final byte[] newBody = new byte[(int) Math.max(capacity, body.length * 2L)];
+            System.arraycopy(body, 0, newBody, 0, bodyLength);
+            body = newBody;
+        }
+    }
+
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /**
+     * 响应结束后连接是否还能复用
+     */
+    public boolean isKeepAlive() {
+        return !connectionClose && httpMinorVersion >= 1;
+    }
+
+    public int bodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * 响应体，每个响应只在这里产生一次String
+     */
+    public String body() {
+        return new String(body, 0, bodyLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 重置状态，解析下一个响应；body数组保留复用
+     */
+    public void reset() {
+        state = STATUS_LINE;
+        lineLength = 0;
+        spaceCount = 0;
+        headers.reset();
+        statusCode = 0;
+        httpMinorVersion = 0;
+        connectionClose = false;
+        remaining = 0;
+        bodyLength = 0;
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.javaniodemo.nio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpResponseParser和原来split写法的对比
+ * <p>
+ * 原来的写法要求整个响应在一个buffer里面，这里为了能比，两种都一次性喂完整响应；
+ * 分段喂数据的场景原来的写法直接就是错的，没法比
+ * <p>
+ * 运行：直接跑main方法，加 -prof gc 可以看每次操作的内存分配
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpResponseParserBenchmark {
+
+    /**
+     * body大小，5就是/delay5s返回的hello
+     */
+    @Param({"5", "4096"})
+    int bodySize;
+
+    ByteBuffer response;
+
+    final HttpResponseParser parser = new HttpResponseParser();
+
+    @Setup
+    public void setUp() {
+        final String body = "h".repeat(bodySize);
+        final String responseStr = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: text/plain;charset=UTF-8\r\n" +
+                "Content-Length: " + bodySize + "\r\n" +
+                "\r\n" +
+                body;
+        response = ByteBuffer.allocateDirect(responseStr.length());
+        response.put(responseStr.getBytes(StandardCharsets.UTF_8)).flip();
+    }
+
+    /**
+     * JavaNioDemo原来的解析写法
+     */
+    @Benchmark
+    public String splitBased() {
+        final ByteBuffer buffer = response.duplicate();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        final String responseStr = new String(bytes);
+        final String[] split = responseStr.split("\r\n\r\n", 2);
+        String header = split[0];
+        String body = split[1];
+        final Integer bodySize = header.lines()
+                .filter(s -> s.startsWith("Content-Length:"))
+                .map(s -> s.split(":")[1].trim())
+                .map(s -> Integer.parseInt(s))
+                .findFirst()
+                .get();
+        if (bodySize != body.getBytes().length) {
+            throw new IllegalStateException();
+        }
+        return body;
+    }
+
+    @Benchmark
+    public String incrementalParser() throws Exception {
+        final ByteBuffer buffer = response.duplicate();
+        parser.reset();
+        if (!parser.parse(buffer)) {
+            throw new IllegalStateException();
+        }
+        return parser.body();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(HttpResponseParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
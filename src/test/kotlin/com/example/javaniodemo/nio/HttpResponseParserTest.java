@@ -0,0 +1,167 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class HttpResponseParserTest {
+
+    private static final String FIXED = "HTTP/1.1 200 OK\r\n" +
+            "Content-Type: text/plain;charset=UTF-8\r\n" +
+            "content-length: 5\r\n" +
+            "\r\n" +
+            "hello";
+
+    private static final String CHUNKED = "HTTP/1.1 200 OK\r\n" +
+            "Transfer-Encoding: chunked\r\n" +
+            "\r\n" +
+            "3;ext=1\r\nhel\r\n" +
+            "2\r\nlo\r\n" +
+            "0\r\n" +
+            "X-Trailer: a\r\n" +
+            "\r\n";
+
+    @Test
+    public void testContentLength() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertTrue(parser.parse(buffer(FIXED)));
+        Assertions.assertEquals(200, parser.statusCode());
+        Assertions.assertEquals("hello", parser.body());
+        Assertions.assertTrue(parser.isKeepAlive());
+    }
+
+    @Test
+    public void testChunked() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertTrue(parser.parse(buffer(CHUNKED)));
+        Assertions.assertEquals("hello", parser.body());
+    }
+
+    /**
+     * 半包：每次只喂一个字节，模拟响应被拆成很多个tcp分段
+     */
+    @Test
+    public void testPartialReads() throws Exception {
+        for (String response : new String[]{FIXED, CHUNKED}) {
+            final HttpResponseParser parser = new HttpResponseParser();
+            final ByteBuffer all = buffer(response);
+            boolean done = false;
+            while (all.hasRemaining()) {
+                Assertions.assertFalse(done);
+                final ByteBuffer one = ByteBuffer.allocate(1);
+                one.put(all.get()).flip();
+                done = parser.parse(one);
+            }
+            Assertions.assertTrue(done);
+            Assertions.assertEquals("hello", parser.body());
+        }
+    }
+
+    /**
+     * 粘包：两个响应在同一个buffer里面，reset后接着解析
+     */
+    @Test
+    public void testPipelinedResponses() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final ByteBuffer in = buffer(FIXED + CHUNKED);
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertEquals("hello", parser.body());
+        Assertions.assertTrue(in.hasRemaining());
+        parser.reset();
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertEquals("hello", parser.body());
+        Assertions.assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void testLargeBody() throws Exception {
+        final String body = "a".repeat(100_000);
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertTrue(parser.parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 100000\r\n\r\n" + body)));
+        Assertions.assertEquals(body, parser.body());
+    }
+
+    @Test
+    public void testReadUntilClose() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertFalse(parser.parse(buffer("HTTP/1.0 200 OK\r\n\r\nhel")));
+        Assertions.assertFalse(parser.parse(buffer("lo")));
+        Assertions.assertTrue(parser.endOfStream());
+        Assertions.assertEquals("hello", parser.body());
+        Assertions.assertFalse(parser.isKeepAlive());
+    }
+
+    @Test
+    public void testConnectionClose() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertTrue(parser.parse(buffer("HTTP/1.1 204 No Content\r\nConnection: close\r\n\r\n")));
+        Assertions.assertEquals(204, parser.statusCode());
+        Assertions.assertFalse(parser.isKeepAlive());
+
+        // 逗号分隔的多个选项里面有close也算
+        parser.reset();
+        Assertions.assertTrue(parser.parse(buffer("HTTP/1.1 204 No Content\r\nConnection: Upgrade, Close\r\n\r\n")));
+        Assertions.assertFalse(parser.isKeepAlive());
+    }
+
+    @Test
+    public void testTruncated() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertFalse(parser.parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 5\r\n\r\nhe")));
+        Assertions.assertThrows(ProtocolException.class, parser::endOfStream);
+    }
+
+    /**
+     * 重复的Content-Length：值一样可以，不一样不能拼起来当成55
+     */
+    @Test
+    public void testDuplicateContentLength() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertTrue(parser.parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\nhello")));
+        Assertions.assertEquals("hello", parser.body());
+
+        Assertions.assertThrows(ProtocolException.class,
+                () -> new HttpResponseParser().parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\nhello!")));
+        Assertions.assertThrows(ProtocolException.class,
+                () -> new HttpResponseParser().parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 1 2\r\n\r\nhello")));
+        Assertions.assertThrows(ProtocolException.class,
+                () -> new HttpResponseParser().parse(buffer("HTTP/1.1 200 OK\r\nContent-Length:\r\n\r\n")));
+    }
+
+    /**
+     * header里声明的长度不能直接拿来分配数组：很大但在范围内的不预先分配，超过数组上限的是协议错误
+     */
+    @Test
+    public void testHugeContentLength() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        Assertions.assertFalse(parser.parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 2000000000\r\n\r\nhel")));
+        Assertions.assertEquals(3, parser.bodyLength());
+
+        Assertions.assertThrows(ProtocolException.class,
+                () -> new HttpResponseParser().parse(buffer("HTTP/1.1 200 OK\r\nContent-Length: 3000000000\r\n\r\n")));
+        Assertions.assertThrows(ProtocolException.class,
+                () -> new HttpResponseParser().parse(buffer("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\nffffffffff\r\n")));
+    }
+
+    /**
+     * 1xx中间响应跳过，后面的最终响应才算数
+     */
+    @Test
+    public void testInformationalResponse() throws Exception {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final ByteBuffer in = buffer("HTTP/1.1 100 Continue\r\n\r\n" +
+                "HTTP/1.1 103 Early Hints\r\nLink: </style.css>; rel=preload\r\n\r\n" +
+                FIXED);
+        Assertions.assertTrue(parser.parse(in));
+        Assertions.assertEquals(200, parser.statusCode());
+        Assertions.assertEquals("hello", parser.body());
+        Assertions.assertFalse(in.hasRemaining());
+    }
+
+    private static ByteBuffer buffer(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.UTF_8));
+    }
+}
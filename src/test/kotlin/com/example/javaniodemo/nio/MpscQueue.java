@@ -0,0 +1,74 @@
+package com.example.javaniodemo.nio;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 无锁的多生产者单消费者队列
+ * <p>
+ * 链表实现：生产者只对tail做一次getAndSet再挂上next，不加锁也不自旋重试；
+ * 消费者只有事件循环线程一个，head不需要任何同步
+ * <p>
+ * 生产者getAndSet之后、挂上next之前，消费者会暂时看不到这个元素（队列看上去是空的），
+ * 所以生产者提交完之后要负责唤醒消费者，见{@link NioEventLoop#execute}
+ */
+public class MpscQueue<E> {
+
+    private static final class Node<E> {
+        E value;
+        volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * 生产者竞争的尾部
+     */
+    private final AtomicReference<Node<E>> tail;
+
+    /**
+     * 消费者独占的头部，是一个不存值的哨兵节点
+     */
+    private Node<E> head;
+
+    public MpscQueue() {
+        final Node<E> stub = new Node<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * 任何线程都可以调用
+     */
+    public void offer(E e) {
+        Objects.requireNonNull(e);
+        final Node<E> node = new Node<>(e);
+        final Node<E> prev = tail.getAndSet(node);
+        // 这里必须是volatile写，配合NioEventLoop里面wakeupPending的读写，保证消费者不会漏看
+        prev.next = node;
+    }
+
+    /**
+     * 只能消费者线程调用
+     */
+    public E poll() {
+        final Node<E> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        final E value = next.value;
+        // 取出的节点变成新的哨兵，值要清掉，避免内存泄漏
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    /**
+     * 只能消费者线程调用
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+}
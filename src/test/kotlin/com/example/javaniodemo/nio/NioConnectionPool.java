@@ -0,0 +1,272 @@
+package com.example.javaniodemo.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按host分组的keep-alive连接池
+ * <p>
+ * 只归事件循环线程所有，所有方法都只能在事件循环线程调用，所以不加锁；
+ * 其他线程要用连接，先把任务提交到事件循环
+ * <p>
+ * 空闲连接依旧注册在selector上，监听OP_READ，用来发现服务端主动关闭了连接，
+ * 这时候事件循环调用{@link #closed}把它从池子里移除
+ */
+public class NioConnectionPool {
+
+    /**
+     * 拿到连接后的回调
+     */
+    public interface Lease {
+        /**
+         * @param channel 非阻塞的连接
+         * @param reused  true：复用的已连接的连接；false：新建的连接，connect已经发起，需要等OP_CONNECT
+         */
+        void onAcquired(SocketChannel channel, boolean reused) throws IOException;
+
+        /**
+         * 排队的请求没能拿到连接，比如空出名额后新建连接失败；
+         * acquire时直接失败的不走这里，异常由acquire抛给调用方
+         */
+        void onFailed(Throwable cause);
+    }
+
+    /**
+     * 空闲连接，同时也是空闲连接注册在selector上的attachment
+     * <p>
+     * 空闲连接上有读事件，说明服务端关闭了连接，或者发了不该发的数据，都不能再用了
+     */
+    public class IdleConnection implements NioEventLoop.SelectionHandler {
+        final InetSocketAddress address;
+        final SocketChannel channel;
+        /**
+         * 空闲超时的定时任务，连接被复用时取消
+         */
+        HashedTimingWheel.Timeout idleTimeout;
+
+        IdleConnection(InetSocketAddress address, SocketChannel channel) {
+            this.address = address;
+            this.channel = channel;
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) throws IOException {
+            closed(this);
+        }
+
+        public InetSocketAddress address() {
+            return address;
+        }
+
+        public SocketChannel channel() {
+            return channel;
+        }
+    }
+
+    private static class HostPool {
+        /**
+         * 空闲连接，后进先出，最近用过的连接最可能还活着
+         */
+        final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+        /**
+         * 等连接的请求
+         */
+        final ArrayDeque<Lease> waiters = new ArrayDeque<>();
+        /**
+         * 这个host总共打开着的连接数，包括空闲的和正在用的
+         */
+        int total;
+    }
+
+    private final int maxIdlePerHost;
+    private final int maxPerHost;
+    private final long idleTimeoutMillis;
+
+    private final Map<InetSocketAddress, HostPool> hosts = new HashMap<>();
+
+    /**
+     * 所属事件循环的定时器，用来关闭空闲超时的连接；没有绑定的话空闲连接不会超时
+     */
+    private HashedTimingWheel timer;
+
+    /**
+     * 总共新建过的连接数，用来验证连接复用的效果
+     * <p>
+     * 只有事件循环线程写，其他线程可以读
+     */
+    private volatile long connectCount;
+
+    /**
+     * @param maxIdlePerHost    每个host最多保留的空闲连接
+     * @param maxPerHost        每个host最多同时打开的连接，超过的请求排队等连接
+     * @param idleTimeoutMillis 空闲超过这个时长的连接会被关闭
+     */
+    public NioConnectionPool(int maxIdlePerHost, int maxPerHost, long idleTimeoutMillis) {
+        if (maxIdlePerHost < 0 || maxPerHost <= 0 || idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.maxPerHost = maxPerHost;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * 绑定所属事件循环的定时器，由事件循环调用
+     */
+    void bindTimer(HashedTimingWheel timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * 获取连接：优先复用空闲连接，其次新建，达到上限就排队
+     */
+    public void acquire(InetSocketAddress address, Lease lease) throws IOException {
+        final HostPool host = hosts.computeIfAbsent(address, a -> new HostPool());
+        IdleConnection idle;
+        while ((idle = host.idle.pollFirst()) != null) {
+            cancelIdleTimeout(idle);
+            if (idle.channel.isOpen()) {
+                lease.onAcquired(idle.channel, true);
+                return;
+            }
+            host.total--;
+        }
+        if (host.total < maxPerHost) {
+            connect(address, host, lease);
+        } else {
+            host.waiters.addLast(lease);
+        }
+    }
+
+    private void connect(InetSocketAddress address, HostPool host, Lease lease) throws IOException {
+        final SocketChannel channel = open(address);
+        host.total++;
+        connectCount++;
+        lease.onAcquired(channel, false);
+    }
+
+    /**
+     * 新建连接，发起非阻塞connect
+     */
+    SocketChannel open(InetSocketAddress address) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(address);
+        } catch (IOException | RuntimeException e) {
+            // 地址解析不了之类的是非受检异常，一样要关掉
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * 一个请求用完了连接
+     *
+     * @param keepAlive 响应是否允许复用连接
+     * @return 放回池子后的空闲连接，调用方需要把它作为attachment注册OP_READ；连接已经关闭或转交给排队的请求时返回null
+     */
+    public IdleConnection release(InetSocketAddress address, SocketChannel channel, boolean keepAlive) throws IOException {
+        final HostPool host = hosts.get(address);
+        if (!keepAlive || !channel.isOpen()) {
+            channel.close();
+            closed(address, host);
+            return null;
+        }
+        final Lease waiter = host.waiters.pollFirst();
+        if (waiter != null) {
+            try {
+                waiter.onAcquired(channel, true);
+            } catch (IOException | RuntimeException e) {
+                // 连接已经交给了这个请求，由它自己在onFailed里面处理
+                waiter.onFailed(e);
+            }
+            return null;
+        }
+        if (host.idle.size() >= maxIdlePerHost) {
+            channel.close();
+            closed(address, host);
+            return null;
+        }
+        final IdleConnection idle = new IdleConnection(address, channel);
+        if (timer != null) {
+            idle.idleTimeout = timer.schedule(() -> evict(idle), idleTimeoutMillis);
+        }
+        host.idle.addFirst(idle);
+        return idle;
+    }
+
+    /**
+     * 连接因为出错被关闭，不能再复用
+     */
+    public void discard(InetSocketAddress address, SocketChannel channel) throws IOException {
+        channel.close();
+        closed(address, hosts.get(address));
+    }
+
+    /**
+     * 空闲连接被服务端关闭了
+     */
+    public void closed(IdleConnection idle) throws IOException {
+        cancelIdleTimeout(idle);
+        idle.channel.close();
+        final HostPool host = hosts.get(idle.address);
+        if (host.idle.remove(idle)) {
+            closed(idle.address, host);
+        }
+    }
+
+    private void closed(InetSocketAddress address, HostPool host) {
+        host.total--;
+        // 空出来一个名额，给排队的请求新建连接；新建失败的请求单独失败，名额接着给下一个
+        Lease waiter;
+        while (host.total < maxPerHost && (waiter = host.waiters.pollFirst()) != null) {
+            try {
+                connect(address, host, waiter);
+            } catch (IOException | RuntimeException e) {
+                waiter.onFailed(e);
+            }
+        }
+    }
+
+    /**
+     * 空闲超时，由定时器在事件循环线程触发
+     */
+    private void evict(IdleConnection idle) {
+        idle.idleTimeout = null;
+        try {
+            closed(idle);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void cancelIdleTimeout(IdleConnection idle) {
+        if (idle.idleTimeout != null) {
+            idle.idleTimeout.cancel();
+            idle.idleTimeout = null;
+        }
+    }
+
+    public int idleCount() {
+        int count = 0;
+        for (HostPool host : hosts.values()) {
+            count += host.idle.size();
+        }
+        return count;
+    }
+
+    public long idleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long connectCount() {
+        return connectCount;
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NioConnectionPoolTest {
+
+    ServerSocketChannel server;
+    InetSocketAddress address;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+        address = (InetSocketAddress) server.getLocalAddress();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        final NioConnectionPool pool = new NioConnectionPool(1, 10, 30_000);
+        final List<SocketChannel> acquired = new ArrayList<>();
+        final List<Boolean> reusedFlags = new ArrayList<>();
+        final NioConnectionPool.Lease lease = new NioConnectionPool.Lease() {
+            @Override
+            public void onAcquired(SocketChannel channel, boolean reused) {
+                acquired.add(channel);
+                reusedFlags.add(reused);
+            }
+
+            @Override
+            public void onFailed(Throwable cause) {
+                Assertions.fail(cause);
+            }
+        };
+
+        pool.acquire(address, lease);
+        Assertions.assertFalse(reusedFlags.get(0));
+        Assertions.assertNotNull(pool.release(address, acquired.get(0), true));
+
+        pool.acquire(address, lease);
+        Assertions.assertTrue(reusedFlags.get(1));
+        Assertions.assertSame(acquired.get(0), acquired.get(1));
+        Assertions.assertEquals(1, pool.connectCount());
+
+        // 不允许keep-alive的响应，连接直接关闭
+        Assertions.assertNull(pool.release(address, acquired.get(1), false));
+        Assertions.assertFalse(acquired.get(1).isOpen());
+    }
+
+    @Test
+    public void testMaxPerHost() throws Exception {
+        final NioConnectionPool pool = new NioConnectionPool(1, 1, 30_000);
+        final List<SocketChannel> acquired = new ArrayList<>();
+        pool.acquire(address, lease(acquired, null));
+        pool.acquire(address, lease(acquired, null));
+        // 第二个请求排队
+        Assertions.assertEquals(1, acquired.size());
+
+        // 还回来的连接直接转交给排队的请求
+        Assertions.assertNull(pool.release(address, acquired.get(0), true));
+        Assertions.assertEquals(2, acquired.size());
+        Assertions.assertSame(acquired.get(0), acquired.get(1));
+        Assertions.assertEquals(1, pool.connectCount());
+        pool.discard(address, acquired.get(1));
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        final AtomicLong now = new AtomicLong();
+        final HashedTimingWheel timer = new HashedTimingWheel(1, 8, now::get);
+        final NioConnectionPool pool = new NioConnectionPool(1, 10, 100);
+        pool.bindTimer(timer);
+        final List<SocketChannel> acquired = new ArrayList<>();
+        pool.acquire(address, lease(acquired, null));
+        pool.release(address, acquired.get(0), true);
+        Assertions.assertEquals(1, pool.idleCount());
+
+        // 被复用的连接取消空闲超时
+        pool.acquire(address, lease(acquired, null));
+        Assertions.assertEquals(0, timer.size());
+        pool.release(address, acquired.get(1), true);
+
+        now.set(99);
+        Assertions.assertEquals(0, timer.advance());
+        now.set(100);
+        Assertions.assertEquals(1, timer.advance());
+        Assertions.assertEquals(0, pool.idleCount());
+        Assertions.assertFalse(acquired.get(0).isOpen());
+    }
+
+    /**
+     * 空出名额后给排队的请求新建连接失败：这个请求收到onFailed，名额接着给下一个排队的请求
+     */
+    @Test
+    public void testConnectFailsForWaiter() throws Exception {
+        final AtomicInteger opens = new AtomicInteger();
+        final NioConnectionPool pool = new NioConnectionPool(1, 1, 30_000) {
+            @Override
+            SocketChannel open(InetSocketAddress address) throws IOException {
+                if (opens.incrementAndGet() == 2) {
+                    throw new ConnectException("Connection refused");
+                }
+                return super.open(address);
+            }
+        };
+        final List<SocketChannel> acquired = new ArrayList<>();
+        final List<Throwable> failed = new ArrayList<>();
+        pool.acquire(address, lease(acquired, failed));
+        pool.acquire(address, lease(acquired, failed));
+        pool.acquire(address, lease(acquired, failed));
+        Assertions.assertEquals(1, acquired.size());
+
+        pool.discard(address, acquired.get(0));
+        Assertions.assertEquals(1, failed.size());
+        Assertions.assertInstanceOf(ConnectException.class, failed.get(0));
+        Assertions.assertEquals(2, acquired.size());
+        Assertions.assertTrue(acquired.get(1).isOpen());
+
+        // 失败的那次没有占名额：还回来之后还能复用
+        Assertions.assertNotNull(pool.release(address, acquired.get(1), true));
+        pool.acquire(address, lease(acquired, failed));
+        Assertions.assertSame(acquired.get(1), acquired.get(2));
+        Assertions.assertEquals(2, pool.connectCount());
+        pool.discard(address, acquired.get(2));
+    }
+
+    /**
+     * @param failed null表示不应该失败
+     */
+    private static NioConnectionPool.Lease lease(List<SocketChannel> acquired, List<Throwable> failed) {
+        return new NioConnectionPool.Lease() {
+            @Override
+            public void onAcquired(SocketChannel channel, boolean reused) {
+                acquired.add(channel);
+            }
+
+            @Override
+            public void onFailed(Throwable cause) {
+                if (failed == null) {
+                    Assertions.fail(cause);
+                }
+                failed.add(cause);
+            }
+        };
+    }
+}
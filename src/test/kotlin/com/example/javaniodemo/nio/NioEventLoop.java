@@ -0,0 +1,332 @@
+package com.example.javaniodemo.nio;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单线程事件循环：一个线程 + 一个Selector
+ * <p>
+ * 注册在这个循环上的channel，从注册到关闭一直由这个线程处理；
+ * 其他线程不直接碰selector，通过{@link #execute}提交任务
+ */
+@Slf4j
+public class NioEventLoop {
+
+    /**
+     * 就绪事件的处理者，作为attachment注册到selector上
+     */
+    public interface SelectionHandler {
+        void onSelected(SelectionKey key) throws Exception;
+    }
+
+    /**
+     * 没有任务、没有就绪事件的时候怎么等
+     */
+    public enum WaitStrategy {
+        /**
+         * 直接阻塞在select里面，空闲时不占cpu，但是从epoll返回到线程被调度起来有唤醒延迟
+         */
+        BLOCKING,
+        /**
+         * 先selectNow自旋spinIterations次，还是没事干再阻塞；短间隔连续到来的事件不用付唤醒延迟
+         */
+        SPIN_THEN_BLOCK,
+        /**
+         * 一直selectNow自旋，从不阻塞，延迟最低，始终占满一个核
+         */
+        BUSY_POLL,
+    }
+
+    private final Selector selector;
+
+    private final Thread thread;
+
+    /**
+     * 提交给事件循环的任务，事件循环每一轮开头执行
+     * <p>
+     * 其他线程不直接调用channel.register，否则在select期间会和事件循环线程抢selector内部的锁
+     */
+    private final MpscQueue<Runnable> taskQueue = new MpscQueue<>();
+
+    /**
+     * 是否已经有人唤醒过selector
+     * <p>
+     * 一轮循环里面只需要唤醒一次，一次提交1万个任务也只调用一次selector.wakeup()
+     */
+    private final AtomicBoolean wakeupPending = new AtomicBoolean();
+
+    /**
+     * 实际调用selector.wakeup()的次数
+     */
+    private final AtomicLong wakeupCount = new AtomicLong();
+
+    /**
+     * 读缓冲区整个事件循环共用一个，读到的数据当场交给解析器，不需要每次OP_READ新建
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+
+    /**
+     * 这个循环自己的keep-alive连接池，连接复用时也不会换线程；不发请求的循环（比如服务端）没有，是null
+     */
+    private final NioConnectionPool connectionPool;
+
+    /**
+     * 负载：分配到这个循环上还没完成的请求数，给LEAST_LOAD选循环用
+     */
+    private final AtomicInteger load = new AtomicInteger();
+
+    /**
+     * 这个循环上所有的定时任务：连接/读/总超时、空闲连接回收
+     * <p>
+     * 10ms精度，512个槽位一圈约5秒，更长的超时多转几圈
+     */
+    private final HashedTimingWheel timer = new HashedTimingWheel(10, 512);
+
+    private final WaitStrategy waitStrategy;
+
+    private final int spinIterations;
+
+    /**
+     * 有活干的循环次数：执行了任务、处理了就绪事件或者触发了定时任务
+     * <p>
+     * 只有事件循环线程写，其他线程读到的可能稍旧
+     */
+    private volatile long usefulIterations;
+
+    /**
+     * 自旋时selectNow什么都没拿到的次数
+     */
+    private volatile long idleSpins;
+
+    /**
+     * 阻塞在select里面的次数
+     */
+    private volatile long blockingSelects;
+
+    private volatile boolean running = true;
+
+    /**
+     * 没有连接池，只处理连接、任务和定时任务
+     */
+    public NioEventLoop(String name) throws IOException {
+        this(name, null);
+    }
+
+    public NioEventLoop(String name, NioConnectionPool connectionPool) throws IOException {
+        this(name, connectionPool, WaitStrategy.BLOCKING, 0);
+    }
+
+    /**
+     * @param connectionPool 可以是null，这个循环上不发请求
+     * @param spinIterations SPIN_THEN_BLOCK时阻塞前自旋的次数，其他策略忽略
+     */
+    public NioEventLoop(String name, NioConnectionPool connectionPool, WaitStrategy waitStrategy, int spinIterations) throws IOException {
+        if (spinIterations < 0) {
+            throw new IllegalArgumentException("spinIterations: " + spinIterations);
+        }
+        this.waitStrategy = waitStrategy;
+        this.spinIterations = spinIterations;
+        this.selector = Selector.open();
+        this.connectionPool = connectionPool;
+        if (connectionPool != null) {
+            connectionPool.bindTimer(timer);
+        }
+        this.thread = new Thread(this::loop, name);
+        this.thread.start();
+    }
+
+    private void loop() {
+        long loopCount = 0;
+        try {
+            while (running) {
+                loopCount++;
+                if (log.isDebugEnabled()) {
+                    // 每轮循环都走这里，关着debug的时候连拼参数、装箱都不要有
+                    log.debug("loopCount: {}", loopCount);
+                }
+                int work = runTasks();
+                // 从这里开始提交的任务需要重新唤醒selector
+                wakeupPending.set(false);
+                if (!taskQueue.isEmpty()) {
+                    // runTasks之后、重置标记之前提交的任务，提交者看到标记还在就没有唤醒，这里不能阻塞
+                    work += selector.selectNow(this::processSelectedKey);
+                } else {
+                    work += waitAndSelect();
+                }
+                work += timer.advance();
+                if (work > 0) {
+                    usefulIterations++;
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException(e);
+        } finally {
+            closeSelector();
+        }
+    }
+
+    /**
+     * 按等待策略等到有事可做，处理就绪事件
+     *
+     * @return 处理的就绪事件数
+     */
+    private int waitAndSelect() throws IOException {
+        long next = timer.millisToNextTick();
+        if (next == 0) {
+            return selector.selectNow(this::processSelectedKey);
+        }
+        if (waitStrategy != WaitStrategy.BLOCKING) {
+            // 自旋期间自己会看任务队列，提交任务的线程不用再调selector.wakeup()
+            wakeupPending.set(true);
+            final long deadline = next < 0 ? Long.MAX_VALUE : HashedTimingWheel.currentMillis() + next;
+            for (int i = 0; waitStrategy == WaitStrategy.BUSY_POLL || i < spinIterations; i++) {
+                final int selected = selector.selectNow(this::processSelectedKey);
+                if (selected > 0 || !taskQueue.isEmpty() || !running || HashedTimingWheel.currentMillis() >= deadline) {
+                    return selected;
+                }
+                idleSpins++;
+                Thread.onSpinWait();
+            }
+            // 要阻塞了，和loop开头一样先重置标记再检查一次队列
+            wakeupPending.set(false);
+            if (!taskQueue.isEmpty()) {
+                return 0;
+            }
+            next = timer.millisToNextTick();
+            if (next == 0) {
+                return selector.selectNow(this::processSelectedKey);
+            }
+        }
+        blockingSelects++;
+        // 阻塞到最近一个定时任务到期；没有定时任务就一直阻塞到有事件（select的0表示不超时）
+        return selector.select(this::processSelectedKey, Math.max(next, 0));
+    }
+
+    /**
+     * @return 执行的任务数
+     */
+    private int runTasks() {
+        int count = 0;
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            count++;
+            try {
+                task.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        return count;
+    }
+
+    private void processSelectedKey(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        try {
+            ((SelectionHandler) key.attachment()).onSelected(key);
+        } catch (Exception e) {
+            // 处理者自己负责失败请求的收尾，这里只保证一个channel出错不会拖垮整个循环
+            e.printStackTrace();
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 提交任务到事件循环线程执行，任何线程都可以调用
+     */
+    public void execute(Runnable task) {
+        taskQueue.offer(task);
+        // 事件循环线程自己提交的任务，下一轮开头就会执行，不需要唤醒
+        if (!inEventLoop() && wakeupPending.compareAndSet(false, true)) {
+            wakeupCount.incrementAndGet();
+            selector.wakeup();
+        }
+    }
+
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * 只能在事件循环线程里面用
+     */
+    public Selector selector() {
+        return selector;
+    }
+
+    /**
+     * 只能在事件循环线程里面用
+     */
+    public ByteBuffer readBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     * 只能在事件循环线程里面用；没有连接池时返回null
+     */
+    public NioConnectionPool connectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * 只能在事件循环线程里面用
+     */
+    public HashedTimingWheel timer() {
+        return timer;
+    }
+
+    public AtomicInteger load() {
+        return load;
+    }
+
+    public long wakeupCount() {
+        return wakeupCount.get();
+    }
+
+    public WaitStrategy waitStrategy() {
+        return waitStrategy;
+    }
+
+    public long usefulIterations() {
+        return usefulIterations;
+    }
+
+    public long idleSpins() {
+        return idleSpins;
+    }
+
+    public long blockingSelects() {
+        return blockingSelects;
+    }
+
+    /**
+     * 停止事件循环，关闭所有channel
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        thread.join();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.javaniodemo.nio;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 多个事件循环组成的组，每个循环一个线程一个Selector，突破单线程只能用一个核的限制
+ * <p>
+ * 新的请求按{@link Chooser}分配到某个循环上，之后它的channel一直留在这个循环上
+ */
+public class NioEventLoopGroup {
+
+    /**
+     * 选择事件循环的策略
+     */
+    public enum Chooser {
+        /**
+         * 轮询
+         */
+        ROUND_ROBIN,
+        /**
+         * 选当前未完成请求最少的
+         */
+        LEAST_LOAD,
+    }
+
+    private final NioEventLoop[] loops;
+
+    private final Chooser chooser;
+
+    private final AtomicInteger index = new AtomicInteger();
+
+    /**
+     * 默认每个核一个事件循环
+     */
+    public NioEventLoopGroup() throws IOException {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public NioEventLoopGroup(int loopCount) throws IOException {
+        this(loopCount, Chooser.ROUND_ROBIN, () -> new NioConnectionPool(100, 100, 30_000));
+    }
+
+    /**
+     * @param connectionPoolFactory 每个事件循环各自一个连接池；返回null的话事件循环没有连接池，比如服务端的worker
+     */
+    public NioEventLoopGroup(int loopCount, Chooser chooser, Supplier<NioConnectionPool> connectionPoolFactory) throws IOException {
+        this(loopCount, chooser, connectionPoolFactory, NioEventLoop.WaitStrategy.BLOCKING, 0);
+    }
+
+    /**
+     * @param waitStrategy   所有事件循环用同一个等待策略，自旋的策略下每个循环占一个核，循环数不要超过核数
+     * @param spinIterations 见{@link NioEventLoop.WaitStrategy#SPIN_THEN_BLOCK}
+     */
+    public NioEventLoopGroup(int loopCount, Chooser chooser, Supplier<NioConnectionPool> connectionPoolFactory,
+                             NioEventLoop.WaitStrategy waitStrategy, int spinIterations) throws IOException {
+        if (loopCount <= 0) {
+            throw new IllegalArgumentException("loopCount: " + loopCount);
+        }
+        this.chooser = chooser;
+        this.loops = new NioEventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i, connectionPoolFactory.get(), waitStrategy, spinIterations);
+        }
+    }
+
+    /**
+     * 给一个新请求选一个事件循环
+     */
+    public NioEventLoop next() {
+        if (loops.length == 1) {
+            return loops[0];
+        }
+        switch (chooser) {
+            case LEAST_LOAD:
+                NioEventLoop min = loops[0];
+                for (int i = 1; i < loops.length; i++) {
+                    if (loops[i].load().get() < min.load().get()) {
+                        min = loops[i];
+                    }
+                }
+                return min;
+            case ROUND_ROBIN:
+            default:
+                return loops[Math.floorMod(index.getAndIncrement(), loops.length)];
+        }
+    }
+
+    /**
+     * 所有事件循环总共新建过的连接数
+     */
+    public long connectCount() {
+        long count = 0;
+        for (NioEventLoop loop : loops) {
+            final NioConnectionPool pool = loop.connectionPool();
+            if (pool != null) {
+                count += pool.connectCount();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 各个事件循环的计数加起来，看自旋有多少是空转
+     */
+    public String loopStats() {
+        long useful = 0;
+        long idleSpins = 0;
+        long blockingSelects = 0;
+        for (NioEventLoop loop : loops) {
+            useful += loop.usefulIterations();
+            idleSpins += loop.idleSpins();
+            blockingSelects += loop.blockingSelects();
+        }
+        return "有效循环：" + useful + "，空转自旋：" + idleSpins + "，阻塞select：" + blockingSelects;
+    }
+
+    public int size() {
+        return loops.length;
+    }
+
+    public void shutdown() throws InterruptedException {
+        for (NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        for (NioEventLoop loop : loops) {
+            loop.awaitTermination();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.javaniodemo.nio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 事件循环个数和吞吐量的关系，结果单位是请求数/秒
+ * <p>
+ * 需要先启动服务端JavaNioDemoApplication，请求的是不带延时的"/"
+ * <p>
+ * 每次操作并发发出{@link #CONCURRENCY}个请求，全部完成算一次，
+ * 用OperationsPerInvocation换算成单个请求
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class NioEventLoopGroupBenchmark {
+
+    static final int CONCURRENCY = 256;
+
+    @Param({"1", "2", "4", "8"})
+    int loops;
+
+    @Param({"ROUND_ROBIN", "LEAST_LOAD"})
+    NioEventLoopGroup.Chooser chooser;
+
+    NioHttpClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        final NioEventLoopGroup group = new NioEventLoopGroup(loops, chooser,
+                () -> new NioConnectionPool(CONCURRENCY, CONCURRENCY, 30_000));
+        client = new NioHttpClient(group, new InetSocketAddress("localhost", 8080));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.group().shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENCY)
+    public void requests() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(CONCURRENCY);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            client.get("/", (body, e) -> {
+                if (e != null) {
+                    error.set(e);
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(NioEventLoopGroupBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NioEventLoopTest {
+
+    NioEventLoop loop;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        loop = new NioEventLoop("nio-loop-test", new NioConnectionPool(1, 1, 30_000));
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        loop.shutdown();
+        loop.awaitTermination();
+    }
+
+    /**
+     * 多个线程同时提交，每个任务都执行且只执行一次，同一个生产者的任务按提交顺序执行
+     */
+    @Test
+    public void testMultiProducer() throws Exception {
+        final int producers = 4;
+        final int tasksPerProducer = 10_000;
+        final CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+        final int[] lastSeen = new int[producers];
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads.add(new Thread(() -> {
+                for (int i = 1; i <= tasksPerProducer; i++) {
+                    final int seq = i;
+                    loop.execute(() -> {
+                        // 只有事件循环线程访问lastSeen
+                        if (lastSeen[producer] != seq - 1) {
+                            outOfOrder.incrementAndGet();
+                        }
+                        lastSeen[producer] = seq;
+                        done.countDown();
+                    });
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(0, outOfOrder.get());
+    }
+
+    /**
+     * 事件循环忙的时候提交1万个任务，不会产生1万次wakeup
+     */
+    @Test
+    public void testWakeupCoalescing() throws Exception {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        loop.execute(() -> {
+            busy.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        busy.await();
+        final long wakeupsBefore = loop.wakeupCount();
+
+        final int tasks = 10_000;
+        final CountDownLatch done = new CountDownLatch(tasks);
+        for (int i = 0; i < tasks; i++) {
+            loop.execute(done::countDown);
+        }
+        release.countDown();
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(loop.wakeupCount() - wakeupsBefore <= 1, "wakeups: " + (loop.wakeupCount() - wakeupsBefore));
+    }
+
+    private NioEventLoop restart(NioEventLoop.WaitStrategy waitStrategy, int spinIterations) throws Exception {
+        loop.shutdown();
+        loop.awaitTermination();
+        loop = new NioEventLoop("nio-loop-test", new NioConnectionPool(1, 1, 30_000), waitStrategy, spinIterations);
+        return loop;
+    }
+
+    private void runTasks(int tasks) throws Exception {
+        for (int i = 0; i < tasks; i++) {
+            final CountDownLatch done = new CountDownLatch(1);
+            loop.execute(done::countDown);
+            Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * 自旋够次数之后还是没事干，就阻塞在select里面，空闲时不占cpu
+     */
+    @Test
+    public void testSpinThenBlock() throws Exception {
+        restart(NioEventLoop.WaitStrategy.SPIN_THEN_BLOCK, 1_000);
+        runTasks(100);
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (loop.blockingSelects() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assertions.assertTrue(loop.blockingSelects() > 0);
+        Assertions.assertTrue(loop.idleSpins() >= 1_000, "idleSpins: " + loop.idleSpins());
+        Assertions.assertTrue(loop.usefulIterations() >= 1);
+    }
+
+    /**
+     * 一直自旋从不阻塞，自旋期间提交任务不用唤醒selector
+     */
+    @Test
+    public void testBusyPoll() throws Exception {
+        restart(NioEventLoop.WaitStrategy.BUSY_POLL, 0);
+        runTasks(100);
+        Assertions.assertEquals(0, loop.blockingSelects());
+        Assertions.assertTrue(loop.idleSpins() > 0);
+        Assertions.assertTrue(loop.wakeupCount() < 100, "wakeups: " + loop.wakeupCount());
+    }
+}
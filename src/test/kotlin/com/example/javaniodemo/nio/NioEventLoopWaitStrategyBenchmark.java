@@ -0,0 +1,69 @@
+package com.example.javaniodemo.nio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 等待策略和单个请求延迟的关系，SampleTime模式会输出p50、p99等分位数
+ * <p>
+ * 需要先启动服务端JavaNioDemoApplication，请求的是不带延时的"/"，一次只有一个请求在途，
+ * 事件循环大部分时间在等，唤醒延迟占比最大
+ * <p>
+ * 自旋的策略要占满一个核，单核机器上会和服务端、jmh线程抢cpu，结果没有参考意义；
+ * tearDown时打印有效循环和空转自旋的次数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class NioEventLoopWaitStrategyBenchmark {
+
+    @Param({"BLOCKING", "SPIN_THEN_BLOCK", "BUSY_POLL"})
+    NioEventLoop.WaitStrategy waitStrategy;
+
+    @Param({"10000"})
+    int spinIterations;
+
+    NioHttpClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        final NioEventLoopGroup group = new NioEventLoopGroup(1, NioEventLoopGroup.Chooser.ROUND_ROBIN,
+                () -> new NioConnectionPool(1, 1, 30_000), waitStrategy, spinIterations);
+        client = new NioHttpClient(group, new InetSocketAddress("localhost", 8080));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println(waitStrategy + "：" + client.group().loopStats());
+        client.group().shutdown();
+    }
+
+    @Benchmark
+    public String request() throws Exception {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        client.get("/", (body, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(body);
+            }
+        });
+        return future.get();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(NioEventLoopWaitStrategyBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,548 @@
+package com.example.javaniodemo.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 基于{@link NioEventLoopGroup}的http/1.1客户端，只支持GET
+ * <p>
+ * 不绑定任何future实现，结果通过回调给出，回调在事件循环线程执行；
+ * JavaNioDemo、JavaNioWithMyFutureDemo各自把回调对接到自己的future上
+ * <p>
+ * 请求由{@link HttpRequestTemplate}拼好，按路径缓存模板，发请求时不用再编码
+ * <p>
+ * 超时都挂在事件循环的时间轮上，到期时以SocketTimeoutException失败并关闭连接：
+ * - 连接超时：新建连接到finishConnect
+ * - 读超时：请求写完之后，两次读到数据之间的最长间隔
+ * - 总超时：从发起请求到拿到完整响应，包括在连接池排队的时间
+ * <p>
+ * maxPipelineDepth大于1时开启http/1.1流水线：一个连接上最多同时挂maxPipelineDepth个请求，
+ * 攒在一起用一次gathering write发出去，响应按发送顺序依次对应，见{@link Pipeline}。
+ * 服务端按顺序一个个处理流水线上的请求，前面的慢请求会挡住后面的（队头阻塞），深度越大越明显
+ */
+public class NioHttpClient {
+
+    private final NioEventLoopGroup group;
+
+    private final InetSocketAddress server;
+
+    /**
+     * 超时毫秒数，0表示不限制
+     */
+    private final long connectTimeoutMillis;
+    private final long readTimeoutMillis;
+    private final long totalTimeoutMillis;
+
+    /**
+     * 一个连接上最多同时有几个请求，1表示不用流水线
+     */
+    private final int maxPipelineDepth;
+
+    /**
+     * 流水线模式下每个事件循环上还有请求在途的连接，只在各自的事件循环线程里面访问
+     */
+    private final ConcurrentHashMap<NioEventLoop, ArrayDeque<Pipeline>> pipelines = new ConcurrentHashMap<>();
+
+    /**
+     * 路径 -> 请求模板，同一个路径只编码一次
+     */
+    private final ConcurrentHashMap<String, HttpRequestTemplate> templates = new ConcurrentHashMap<>();
+
+    public NioHttpClient(NioEventLoopGroup group, InetSocketAddress server) {
+        this(group, server, 3_000, 10_000, 30_000);
+    }
+
+    public NioHttpClient(NioEventLoopGroup group, InetSocketAddress server,
+                         long connectTimeoutMillis, long readTimeoutMillis, long totalTimeoutMillis) {
+        this(group, server, connectTimeoutMillis, readTimeoutMillis, totalTimeoutMillis, 1);
+    }
+
+    public NioHttpClient(NioEventLoopGroup group, InetSocketAddress server,
+                         long connectTimeoutMillis, long readTimeoutMillis, long totalTimeoutMillis,
+                         int maxPipelineDepth) {
+        if (maxPipelineDepth < 1) {
+            throw new IllegalArgumentException("maxPipelineDepth: " + maxPipelineDepth);
+        }
+        this.group = group;
+        this.server = server;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.totalTimeoutMillis = totalTimeoutMillis;
+        this.maxPipelineDepth = maxPipelineDepth;
+    }
+
+    /**
+     * 取消还没完成的请求：以CancellationException失败，独占的连接直接关掉；已经完成的什么都不做
+     * <p>
+     * 流水线上的请求和超时一样，不关连接，响应回来的时候丢掉
+     */
+    public interface Cancellable {
+        void cancel();
+    }
+
+    /**
+     * 发起GET请求
+     *
+     * @param callback (body, null)表示成功，(null, exception)表示失败
+     * @return 用来取消请求
+     */
+    public Cancellable get(String path, BiConsumer<String, Exception> callback) {
+        return get(templates.computeIfAbsent(path, p -> HttpRequestTemplate.get(p, server)).request(), callback);
+    }
+
+    /**
+     * 发送{@link HttpRequestTemplate}拼好的请求，数组和里面的缓冲区交给客户端之后不能再动
+     *
+     * @param callback (body, null)表示成功，(null, exception)表示失败
+     * @return 用来取消请求
+     */
+    public Cancellable get(ByteBuffer[] request, BiConsumer<String, Exception> callback) {
+        final NioEventLoop loop = group.next();
+        loop.load().incrementAndGet();
+        final Exchange exchange = new Exchange(loop, request, callback);
+        // 连接池、selector都只能在事件循环线程里面用，这里只提交任务
+        loop.execute(exchange::start);
+        return () -> loop.execute(() -> {
+            if (!exchange.completed) {
+                exchange.fail(new CancellationException("request cancelled"));
+            }
+        });
+    }
+
+    public NioEventLoopGroup group() {
+        return group;
+    }
+
+    private static HashedTimingWheel.Timeout schedule(NioEventLoop loop, long timeoutMillis, String message,
+                                                      Consumer<Exception> onTimeout) {
+        if (timeoutMillis <= 0) {
+            return null;
+        }
+        return loop.timer().schedule(() -> onTimeout.accept(new SocketTimeoutException(message + " " + timeoutMillis + "ms")), timeoutMillis);
+    }
+
+    private static void cancel(HashedTimingWheel.Timeout timeout) {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 一次请求响应，同时也是请求期间channel注册在selector上的attachment
+     * <p>
+     * 流水线模式下attachment是{@link Pipeline}，这里只保存请求和回调
+     */
+    private class Exchange implements NioEventLoop.SelectionHandler, NioConnectionPool.Lease {
+        final NioEventLoop loop;
+        final BiConsumer<String, Exception> callback;
+        /**
+         * 一次gathering write写出去，大部分是模板里面只读缓冲区的duplicate
+         */
+        final ByteBuffer[] request;
+        /**
+         * 响应解析状态，跨多次OP_READ保存
+         */
+        final HttpResponseParser parser = new HttpResponseParser();
+        SocketChannel channel;
+        boolean completed;
+        HashedTimingWheel.Timeout connectTimeout;
+        HashedTimingWheel.Timeout readTimeout;
+        HashedTimingWheel.Timeout totalTimeout;
+        /**
+         * 流水线模式下所在的连接
+         */
+        Pipeline pipeline;
+
+        Exchange(NioEventLoop loop, ByteBuffer[] request, BiConsumer<String, Exception> callback) {
+            this.loop = loop;
+            this.callback = callback;
+            this.request = request;
+        }
+
+        void start() {
+            try {
+                totalTimeout = schedule(totalTimeoutMillis, "total timeout");
+                if (maxPipelineDepth > 1) {
+                    pipeline().enqueue(this);
+                } else {
+                    loop.connectionPool().acquire(server, this);
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onAcquired(SocketChannel channel, boolean reused) throws IOException {
+            if (completed) {
+                // 在连接池排队的时候已经超时了，连接原样还回去
+                final NioConnectionPool.IdleConnection idle = loop.connectionPool().release(server, channel, reused);
+                if (idle != null) {
+                    channel.register(loop.selector(), SelectionKey.OP_READ, idle);
+                }
+                return;
+            }
+            this.channel = channel;
+            if (!reused) {
+                connectTimeout = schedule(connectTimeoutMillis, "connect timeout");
+            }
+            // 一下子全部注册上去会导致循环空转，循环空转会导致单核cpu 100%
+            // 每走一步更新一下注册，可以解决循环空转问题；复用的连接已经连上了，直接等写
+            channel.register(loop.selector(), reused ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, this);
+        }
+
+        @Override
+        public void onFailed(Throwable cause) {
+            fail(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+        }
+
+        /**
+         * 优先塞进已有的、还没满的连接，这样连接数最少；都满了再开一个新的
+         */
+        private Pipeline pipeline() throws IOException {
+            final ArrayDeque<Pipeline> active = pipelines.computeIfAbsent(loop, l -> new ArrayDeque<>());
+            for (Pipeline candidate : active) {
+                if (candidate.depth() < maxPipelineDepth) {
+                    return candidate;
+                }
+            }
+            final Pipeline created = new Pipeline(loop, active);
+            active.addLast(created);
+            try {
+                // 连接池满了的话排队，排队期间新来的请求也可以继续挂到这个连接上
+                loop.connectionPool().acquire(server, created);
+            } catch (IOException | RuntimeException e) {
+                // 地址解析不了之类的是非受检异常，一样要摘掉，不然后面的请求会挂到这个没有连接的流水线上
+                active.remove(created);
+                throw e;
+            }
+            return created;
+        }
+
+        private HashedTimingWheel.Timeout schedule(long timeoutMillis, String message) {
+            return NioHttpClient.schedule(loop, timeoutMillis, message, this::fail);
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    cancel(connectTimeout);
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (key.isWritable()) {
+                    channel.write(request);
+                    // 没写完的话继续等OP_WRITE
+                    if (!HttpRequestTemplate.hasRemaining(request)) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        readTimeout = schedule(readTimeoutMillis, "read timeout");
+                    }
+                    return;
+                }
+                if (key.isReadable()) {
+                    read();
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        private void read() throws IOException {
+            final ByteBuffer readBuffer = loop.readBuffer();
+            // 半包：一次OP_READ可能读不完整个响应，解析状态存在parser里面，下次OP_READ接着解析
+            int read;
+            boolean progressed = false;
+            while ((read = channel.read(readBuffer)) > 0) {
+                progressed = true;
+                readBuffer.flip();
+                final boolean done = parser.parse(readBuffer);
+                readBuffer.clear();
+                if (done) {
+                    break;
+                }
+            }
+            if (read == -1) {
+                parser.endOfStream();
+            }
+            if (progressed && !parser.isDone() && readTimeout != null) {
+                // 读超时是两次读之间的间隔，读到数据就重新计时
+                readTimeout.cancel();
+                readTimeout = schedule(readTimeoutMillis, "read timeout");
+            }
+            if (parser.isDone()) {
+                // 先还连接再回调，后续请求在回调里面发起时就能复用这个连接
+                final NioConnectionPool.IdleConnection idle = loop.connectionPool()
+                        .release(server, channel, read != -1 && parser.isKeepAlive());
+                if (idle != null) {
+                    // 空闲连接继续监听OP_READ，用来发现服务端关闭连接
+                    channel.register(loop.selector(), SelectionKey.OP_READ, idle);
+                }
+                complete(parser.body(), null);
+            }
+        }
+
+        private void fail(Exception e) {
+            if (completed) {
+                // 回调自己抛的异常，连接已经还回去了，不能再关
+                e.printStackTrace();
+                return;
+            }
+            if (pipeline != null) {
+                // 流水线上的请求不能单独关连接，先占着位置，响应回来的时候丢掉，见Pipeline.onResponse
+                complete(null, e);
+                return;
+            }
+            if (channel != null) {
+                try {
+                    loop.connectionPool().discard(server, channel);
+                } catch (Exception closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+            complete(null, e);
+        }
+
+        private void complete(String body, Exception e) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            cancel(connectTimeout);
+            cancel(readTimeout);
+            cancel(totalTimeout);
+            loop.load().decrementAndGet();
+            callback.accept(body, e);
+        }
+    }
+
+    /**
+     * 流水线模式下的一个连接，也是它注册在selector上的attachment
+     * <p>
+     * - 请求按到达顺序排进pending，同时排进writeQueue等待发送
+     * - 可写的时候把writeQueue里面的请求一次gathering write全部写出去，没写完的下次OP_WRITE接着写
+     * - 响应严格按请求顺序返回，每解析完一个就是pending的队头那个
+     * - pending空了就把连接还给连接池，之后和普通的keep-alive连接一样复用
+     * <p>
+     * 单个请求超时不能关连接（后面的响应会错位），只把它标记为完成，响应回来时丢掉；
+     * 连接超时、读超时、服务端关闭连接时，整个连接上的请求一起失败
+     */
+    private class Pipeline implements NioEventLoop.SelectionHandler, NioConnectionPool.Lease {
+        final NioEventLoop loop;
+        /**
+         * 所在事件循环的活跃连接列表，pending空了或者关闭时从里面移除
+         */
+        final ArrayDeque<Pipeline> active;
+        final ArrayDeque<Exchange> pending = new ArrayDeque<>();
+        final ArrayDeque<Exchange> writeQueue = new ArrayDeque<>();
+        /**
+         * gathering write用的数组，复用，不够大的时候扩容
+         */
+        ByteBuffer[] writeBuffers = new ByteBuffer[maxPipelineDepth * 3];
+        final HttpResponseParser parser = new HttpResponseParser();
+        SocketChannel channel;
+        SelectionKey key;
+        boolean connected;
+        boolean closed;
+        HashedTimingWheel.Timeout connectTimeout;
+        HashedTimingWheel.Timeout readTimeout;
+
+        Pipeline(NioEventLoop loop, ArrayDeque<Pipeline> active) {
+            this.loop = loop;
+            this.active = active;
+        }
+
+        int depth() {
+            return pending.size();
+        }
+
+        void enqueue(Exchange exchange) {
+            exchange.pipeline = this;
+            pending.addLast(exchange);
+            writeQueue.addLast(exchange);
+            // 不马上写，同一轮任务里面进来的请求等到OP_WRITE一起写
+            if (connected) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+
+        @Override
+        public void onAcquired(SocketChannel channel, boolean reused) throws IOException {
+            if (closed) {
+                // 在连接池排队的时候已经失败了，连接原样还回去
+                final NioConnectionPool.IdleConnection idle = loop.connectionPool().release(server, channel, reused);
+                if (idle != null) {
+                    channel.register(loop.selector(), SelectionKey.OP_READ, idle);
+                }
+                return;
+            }
+            this.channel = channel;
+            if (reused) {
+                connected = true;
+                key = channel.register(loop.selector(), SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+            } else {
+                connectTimeout = NioHttpClient.schedule(loop, connectTimeoutMillis, "connect timeout", this::close);
+                key = channel.register(loop.selector(), SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        @Override
+        public void onFailed(Throwable cause) {
+            close(cause instanceof Exception ? (Exception) cause : new IOException(cause));
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) {
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    cancel(connectTimeout);
+                    connected = true;
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                if (key.isWritable()) {
+                    flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+                if (!closed && pending.isEmpty()) {
+                    idle();
+                }
+            } catch (Exception e) {
+                close(e);
+            }
+        }
+
+        private void flush() throws IOException {
+            int count = 0;
+            for (Iterator<Exchange> it = writeQueue.iterator(); it.hasNext(); ) {
+                final Exchange exchange = it.next();
+                if (exchange.completed && exchange.request[0].position() == 0) {
+                    // 还没开始写就超时了，直接从流水线上拿掉
+                    it.remove();
+                    pending.removeFirstOccurrence(exchange);
+                    continue;
+                }
+                if (count + exchange.request.length > writeBuffers.length) {
+                    writeBuffers = Arrays.copyOf(writeBuffers, Math.max(writeBuffers.length * 2, count + exchange.request.length));
+                }
+                System.arraycopy(exchange.request, 0, writeBuffers, count, exchange.request.length);
+                count += exchange.request.length;
+            }
+            if (count > 0) {
+                channel.write(writeBuffers, 0, count);
+                if (readTimeout == null) {
+                    readTimeout = NioHttpClient.schedule(loop, readTimeoutMillis, "read timeout", this::close);
+                }
+            }
+            while (!writeQueue.isEmpty() && !HttpRequestTemplate.hasRemaining(writeQueue.peekFirst().request)) {
+                writeQueue.pollFirst();
+            }
+            Arrays.fill(writeBuffers, 0, count, null);
+            if (writeQueue.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void read() throws IOException {
+            final ByteBuffer readBuffer = loop.readBuffer();
+            int read;
+            boolean progressed = false;
+            while ((read = channel.read(readBuffer)) > 0) {
+                progressed = true;
+                readBuffer.flip();
+                // 一次读到的数据里面可能有好几个响应
+                while (readBuffer.hasRemaining() && !closed) {
+                    if (pending.isEmpty()) {
+                        throw new IOException("response without pending request");
+                    }
+                    if (!parser.parse(readBuffer)) {
+                        break;
+                    }
+                    onResponse();
+                }
+                readBuffer.clear();
+                if (closed) {
+                    return;
+                }
+            }
+            if (progressed) {
+                // 读超时是两次读之间的间隔，读到数据就重新计时
+                cancel(readTimeout);
+                readTimeout = null;
+                if (!pending.isEmpty()) {
+                    readTimeout = NioHttpClient.schedule(loop, readTimeoutMillis, "read timeout", this::close);
+                }
+            }
+            if (read == -1) {
+                if (!pending.isEmpty()) {
+                    // 读到连接关闭为止的响应在这里结束；响应不完整的话抛异常，整个连接失败
+                    parser.endOfStream();
+                    onResponse();
+                }
+                close(new IOException("connection closed by server"));
+            }
+        }
+
+        private void onResponse() {
+            final Exchange exchange = pending.pollFirst();
+            final boolean keepAlive = parser.isKeepAlive();
+            final String body = parser.body();
+            parser.reset();
+            // 已经超时的请求，响应到了直接丢掉
+            exchange.complete(body, null);
+            if (!keepAlive) {
+                close(new IOException("connection closed by server"));
+            }
+        }
+
+        /**
+         * 没有在途的请求了，连接还给连接池
+         */
+        private void idle() throws IOException {
+            active.remove(this);
+            cancel(readTimeout);
+            readTimeout = null;
+            final NioConnectionPool.IdleConnection idle = loop.connectionPool().release(server, channel, true);
+            if (idle != null) {
+                channel.register(loop.selector(), SelectionKey.OP_READ, idle);
+            }
+        }
+
+        private void close(Exception e) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            active.remove(this);
+            cancel(connectTimeout);
+            cancel(readTimeout);
+            if (channel != null) {
+                try {
+                    loop.connectionPool().discard(server, channel);
+                } catch (Exception closeException) {
+                    closeException.printStackTrace();
+                }
+            }
+            writeQueue.clear();
+            Exchange exchange;
+            while ((exchange = pending.pollFirst()) != null) {
+                exchange.complete(null, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.javaniodemo.nio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 流水线深度和吞吐量的关系，结果单位是请求数/秒
+ * <p>
+ * 需要先启动服务端JavaNioDemoApplication，或者原生nio的niotest.ServerConnect（接口、端口一样）；depth=1就是一个连接同时只有一个请求的普通模式
+ * <p>
+ * - path="/"：不带延时，流水线减少了连接数和write系统调用
+ * - path="/delay5s"这样的慢请求：webflux按顺序处理流水线上的请求，深度越大队头阻塞越严重；ServerConnect是同时处理的
+ * <p>
+ * 连接数上限固定为{@link #CONCURRENCY} / depth，tearDown时打印实际新建的连接数
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class NioHttpClientPipeliningBenchmark {
+
+    static final int CONCURRENCY = 256;
+
+    @Param({"1", "4", "16"})
+    int depth;
+
+    @Param({"/"})
+    String path;
+
+    NioHttpClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        final int connections = CONCURRENCY / depth;
+        final NioEventLoopGroup group = new NioEventLoopGroup(1, NioEventLoopGroup.Chooser.ROUND_ROBIN,
+                () -> new NioConnectionPool(connections, connections, 30_000));
+        client = new NioHttpClient(group, new InetSocketAddress("localhost", 8080), 3_000, 10_000, 30_000, depth);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        System.out.println("depth: " + depth + "，新建连接数：" + client.group().connectCount());
+        client.group().shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENCY)
+    public void requests() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(CONCURRENCY);
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        for (int i = 0; i < CONCURRENCY; i++) {
+            client.get(path, (body, e) -> {
+                if (e != null) {
+                    error.set(e);
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .include(NioHttpClientPipeliningBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+public class NioHttpClientTest {
+
+    ServerSocketChannel server;
+    NioEventLoopGroup group;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // 只监听不accept也不响应，模拟卡住的服务端
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress("localhost", 0));
+        group = new NioEventLoopGroup(1);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        group.shutdown();
+        server.close();
+    }
+
+    private CompletableFuture<String> get(NioHttpClient client, String path) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        client.get(path, (body, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(body);
+            }
+        });
+        return future;
+    }
+
+    private Exception getFailure(NioHttpClient client) throws Exception {
+        final CompletableFuture<String> future = get(client, "/");
+        final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        return (Exception) e.getCause();
+    }
+
+    /**
+     * 只接受一个连接，等收齐requests个请求之后一次性把响应写回去
+     *
+     * @param response 请求路径 -> 完整的响应
+     */
+    private Thread serveOnce(int requests, Function<String, String> response) {
+        final Thread thread = new Thread(() -> {
+            try (SocketChannel channel = server.accept()) {
+                final StringBuilder received = new StringBuilder();
+                final ByteBuffer buffer = ByteBuffer.allocate(4096);
+                while (received.toString().split("\r\n\r\n", -1).length <= requests && channel.read(buffer) > 0) {
+                    buffer.flip();
+                    received.append(StandardCharsets.UTF_8.decode(buffer));
+                    buffer.clear();
+                }
+                final StringBuilder responses = new StringBuilder();
+                for (String request : received.toString().split("\r\n\r\n")) {
+                    responses.append(response.apply(request.split(" ")[1]));
+                }
+                channel.write(ByteBuffer.wrap(responses.toString().getBytes(StandardCharsets.UTF_8)));
+                // 等客户端处理完再关
+                channel.read(buffer);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static String ok(String body) {
+        return "HTTP/1.1 200 OK\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        final NioHttpClient client = new NioHttpClient(group, (InetSocketAddress) server.getLocalAddress(), 1_000, 200, 0);
+        final Exception e = getFailure(client);
+        Assertions.assertTrue(e instanceof SocketTimeoutException);
+        Assertions.assertTrue(e.getMessage().startsWith("read timeout"), e.getMessage());
+    }
+
+    @Test
+    public void testTotalTimeout() throws Exception {
+        final NioHttpClient client = new NioHttpClient(group, (InetSocketAddress) server.getLocalAddress(), 0, 0, 300);
+        final long start = System.nanoTime();
+        final Exception e = getFailure(client);
+        Assertions.assertTrue(e instanceof SocketTimeoutException);
+        Assertions.assertTrue(e.getMessage().startsWith("total timeout"), e.getMessage());
+        Assertions.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 290);
+    }
+
+    /**
+     * 取消等待中的请求，回调以CancellationException失败，连接被关掉
+     */
+    @Test
+    public void testCancel() throws Exception {
+        final NioHttpClient client = new NioHttpClient(group, (InetSocketAddress) server.getLocalAddress(), 1_000, 0, 0);
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        final NioHttpClient.Cancellable request = client.get("/", (body, e) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(body);
+            }
+        });
+        try (SocketChannel accepted = server.accept()) {
+            request.cancel();
+            Assertions.assertThrows(CancellationException.class, () -> future.get(5, TimeUnit.SECONDS));
+            // 对端读到EOF说明连接关了；先读掉客户端发过来的请求
+            final ByteBuffer buffer = ByteBuffer.allocate(4096);
+            final CompletableFuture<Integer> eof = CompletableFuture.supplyAsync(() -> {
+                try {
+                    int read;
+                    while ((read = accepted.read(buffer.clear())) > 0) {
+                    }
+                    return read;
+                } catch (IOException ioException) {
+                    return -1;
+                }
+            });
+            Assertions.assertEquals(-1, eof.get(5, TimeUnit.SECONDS));
+        }
+        // 已经完成的再取消什么都不做
+        request.cancel();
+    }
+
+    /**
+     * 3个请求挂在同一个连接上，一次性收到3个响应，按顺序对上
+     */
+    @Test
+    public void testPipelining() throws Exception {
+        final Thread serverThread = serveOnce(3, path -> ok(path.substring(1)));
+        final NioHttpClient client = new NioHttpClient(group, (InetSocketAddress) server.getLocalAddress(), 1_000, 1_000, 0, 4);
+        final List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String path : List.of("/a", "/b", "/c")) {
+            futures.add(get(client, path));
+        }
+        Assertions.assertEquals("a", futures.get(0).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("b", futures.get(1).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("c", futures.get(2).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(1, group.connectCount());
+        group.shutdown();
+        serverThread.join();
+    }
+
+    /**
+     * 新建连接时抛出非受检异常（地址解析不了）：这个流水线要摘掉，下一个请求自己新建连接、同样马上失败，不会挂在上面等超时
+     */
+    @Test
+    public void testPipelineConnectFailsUnchecked() throws Exception {
+        final NioHttpClient client = new NioHttpClient(group, InetSocketAddress.createUnresolved("no-such-host.invalid", 80), 1_000, 1_000, 0, 4);
+        for (int i = 0; i < 2; i++) {
+            final CompletableFuture<String> future = get(client, "/");
+            final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+            Assertions.assertInstanceOf(UnresolvedAddressException.class, e.getCause());
+        }
+        Assertions.assertEquals(0, group.connectCount());
+    }
+
+    /**
+     * 服务端在第一个响应之后关闭连接，后面的请求失败
+     */
+    @Test
+    public void testPipelineConnectionClose() throws Exception {
+        final Thread serverThread = serveOnce(2, path -> "/a".equals(path)
+                ? "HTTP/1.1 200 OK\r\nConnection: close\r\nContent-Length: 1\r\n\r\na"
+                : ok("b"));
+        final NioHttpClient client = new NioHttpClient(group, (InetSocketAddress) server.getLocalAddress(), 1_000, 1_000, 0, 4);
+        final CompletableFuture<String> first = get(client, "/a");
+        final CompletableFuture<String> second = get(client, "/b");
+        Assertions.assertEquals("a", first.get(5, TimeUnit.SECONDS));
+        final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof IOException);
+        serverThread.join();
+    }
+}
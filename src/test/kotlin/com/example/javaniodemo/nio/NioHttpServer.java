@@ -0,0 +1,476 @@
+package com.example.javaniodemo.nio;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * 原生nio的http/1.1服务端，和JavaNioDemoApplication的/、/delay5s、/delay/{ms}一样的接口，
+ * 不依赖任何框架，用来和webflux在同样的压力下对比
+ * <p>
+ * 多reactor：
+ * - boss：一个事件循环只负责accept，接受的连接轮流交给worker
+ * - worker：{@link NioEventLoopGroup}，连接从注册到关闭一直在同一个worker上，读、解析、写、定时都在这个线程
+ * <p>
+ * 每个连接一个状态机（{@link Connection}）：
+ * - keep-alive：1.1默认复用，1.0要带keep-alive，这时响应也带上keep-alive；空闲超过idleTimeoutMillis关闭
+ * - 流水线：一次读到的多个请求逐个解析、同时开始处理，响应按请求的顺序写回；
+ *   排队的请求到了{@link #MAX_PIPELINED}就停止解析、也不再读，已经读进来的字节先留着，
+ *   等响应写出去再接着解析，客户端发得再快，同时处理的请求和内存也有上限
+ * - 延时：挂在worker自己的时间轮上，到期在worker线程上写响应，不占线程
+ */
+@Slf4j
+public class NioHttpServer {
+
+    /**
+     * 同一个连接上最多排队多少个还没写完响应的请求
+     */
+    static final int MAX_PIPELINED = 16;
+
+    /**
+     * /delay/{ms}的上限，和JavaNioDemoApplication一样
+     */
+    static final long MAX_DELAY_MILLIS = 60_000;
+
+    private static final Response HELLO = new Response("200 OK", "hello");
+    private static final Response BAD_REQUEST = new Response("400 Bad Request", "bad request");
+    private static final Response NOT_FOUND = new Response("404 Not Found", "not found");
+
+    /**
+     * 响应之后连接怎么处理，对应{@link Response}的几个版本
+     */
+    private static final int KEEP_ALIVE = 0;
+    /**
+     * 1.0的请求带了keep-alive：响应里也要带上，不然客户端按1.0的默认认为连接会关
+     */
+    private static final int KEEP_ALIVE_HTTP_1_0 = 1;
+    private static final int CLOSE = 2;
+
+    private final NioEventLoop boss;
+
+    private final NioEventLoopGroup workers;
+
+    private final ServerSocketChannel serverChannel;
+
+    private final long idleTimeoutMillis;
+
+    /**
+     * 默认每个核一个worker
+     */
+    public NioHttpServer(InetSocketAddress address) throws IOException {
+        this(address, Runtime.getRuntime().availableProcessors(), 60_000);
+    }
+
+    /**
+     * @param idleTimeoutMillis keep-alive连接空闲超过这个时长就关闭
+     */
+    public NioHttpServer(InetSocketAddress address, int workerCount, long idleTimeoutMillis) throws IOException {
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis: " + idleTimeoutMillis);
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        // 服务端不发请求，用不到连接池
+        this.workers = new NioEventLoopGroup(workerCount, NioEventLoopGroup.Chooser.ROUND_ROBIN, () -> null);
+        this.boss = new NioEventLoop("nio-server-boss");
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        serverChannel.bind(address, 1024);
+        serverChannel.configureBlocking(false);
+        boss.execute(() -> {
+            try {
+                serverChannel.register(boss.selector(), SelectionKey.OP_ACCEPT, (NioEventLoop.SelectionHandler) key -> accept());
+            } catch (IOException e) {
+                log.error("注册accept失败", e);
+            }
+        });
+        log.info("nio http server started on {}, workers: {}", localAddress(), workerCount);
+    }
+
+    public InetSocketAddress localAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * boss线程：把积压的连接一次accept完，分给worker
+     */
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                // 客户端刚连上就重置了之类的，只丢掉这一个连接，积压的其他连接接着accept
+                log.debug("设置连接失败", e);
+                try {
+                    channel.close();
+                } catch (IOException closeException) {
+                    log.debug("关闭连接失败", closeException);
+                }
+                continue;
+            }
+            final NioEventLoop worker = workers.next();
+            final Connection connection = new Connection(worker, channel);
+            worker.execute(connection::register);
+        }
+    }
+
+    /**
+     * 停止accept，关闭所有连接
+     */
+    public void shutdown() throws InterruptedException {
+        boss.shutdown();
+        boss.awaitTermination();
+        workers.shutdown();
+    }
+
+    /**
+     * 预先编码好的响应，按{@link #KEEP_ALIVE}、{@link #KEEP_ALIVE_HTTP_1_0}、{@link #CLOSE}三个版本，
+     * 写的时候只复制ByteBuffer的视图
+     */
+    private static final class Response {
+        private static final String[] CONNECTION_HEADERS = {"", "Connection: keep-alive\r\n", "Connection: close\r\n"};
+
+        private final ByteBuffer[] encoded = new ByteBuffer[CONNECTION_HEADERS.length];
+        private final int[] headerLengths = new int[CONNECTION_HEADERS.length];
+
+        Response(String status, String body) {
+            final String headers = "HTTP/1.1 " + status + "\r\n"
+                    + "Content-Type: text/plain;charset=UTF-8\r\n"
+                    + "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n";
+            for (int connection = 0; connection < CONNECTION_HEADERS.length; connection++) {
+                final String allHeaders = headers + CONNECTION_HEADERS[connection] + "\r\n";
+                encoded[connection] = encode(allHeaders + body);
+                headerLengths[connection] = allHeaders.length();
+            }
+        }
+
+        private static ByteBuffer encode(String response) {
+            final byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+            return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip().asReadOnlyBuffer();
+        }
+
+        /**
+         * HEAD请求只写header
+         */
+        ByteBuffer encode(int connection, boolean head) {
+            final ByteBuffer buffer = encoded[connection].duplicate();
+            if (head) {
+                buffer.limit(headerLengths[connection]);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * 一个已经解析完的请求，等着它的响应
+     */
+    private static final class Exchange {
+        /**
+         * {@link #KEEP_ALIVE}、{@link #KEEP_ALIVE_HTTP_1_0}或者{@link #CLOSE}
+         */
+        final int connection;
+        final boolean head;
+        /**
+         * 准备好的响应，null表示还在处理（延时还没到）
+         */
+        ByteBuffer response;
+        HashedTimingWheel.Timeout delay;
+
+        Exchange(int connection, boolean head) {
+            this.connection = connection;
+            this.head = head;
+        }
+
+        /**
+         * 按这个请求的连接处理方式、是不是HEAD选响应的版本
+         */
+        ByteBuffer encode(Response response) {
+            return response.encode(connection, head);
+        }
+    }
+
+    /**
+     * 一个连接的状态机，只在所属worker线程上运行
+     * <p>
+     * 读：解析出的请求按顺序进pending；写：pending队头的响应准备好了就挪到output，攒一批一次gathering write
+     */
+    private final class Connection implements NioEventLoop.SelectionHandler {
+
+        private final NioEventLoop loop;
+        private final SocketChannel channel;
+        private final HttpRequestParser parser = new HttpRequestParser();
+
+        /**
+         * 按请求顺序排队，响应也按这个顺序写
+         */
+        private final ArrayDeque<Exchange> pending = new ArrayDeque<>();
+
+        /**
+         * 已经轮到、还没写完的响应
+         */
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+
+        /**
+         * 排队的请求到了上限时已经读进来、还没解析的字节，读模式；读缓冲区是整个事件循环共用的，要复制出来
+         */
+        private ByteBuffer unparsed;
+
+        private SelectionKey key;
+
+        /**
+         * 不再读新的请求：客户端关闭了输出、请求要求关闭连接或者请求不合法；剩下的响应写完就关
+         */
+        private boolean closing;
+
+        private boolean closed;
+
+        private HashedTimingWheel.Timeout idleTimeout;
+
+        Connection(NioEventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void register() {
+            try {
+                key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+                scheduleIdleTimeout();
+            } catch (IOException e) {
+                log.warn("注册连接失败", e);
+                close();
+            }
+        }
+
+        @Override
+        public void onSelected(SelectionKey key) {
+            try {
+                if (key.isWritable()) {
+                    flush();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read();
+                }
+            } catch (IOException e) {
+                // 对端重置连接之类的，没有可以回复的了
+                log.debug("连接异常关闭", e);
+                close();
+            }
+        }
+
+        private void read() throws IOException {
+            if (unparsed != null) {
+                // 同一次select里先处理了OP_WRITE，接着解析了留下的字节但没解析完，读要等它们解析完
+                return;
+            }
+            cancelIdleTimeout();
+            final ByteBuffer buffer = loop.readBuffer();
+            int read;
+            do {
+                buffer.clear();
+                read = channel.read(buffer);
+                if (read < 0) {
+                    if (!parser.isIdle()) {
+                        log.debug("请求不完整，连接被关闭");
+                    }
+                    stopReading();
+                    break;
+                }
+                buffer.flip();
+                parse(buffer);
+                // 读满了说明内核里可能还有，接着读；排队的请求太多或者要关了就先停
+            } while (read == buffer.capacity() && !closing && pending.size() < MAX_PIPELINED);
+            if (!closing && pending.size() >= MAX_PIPELINED) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            flush();
+        }
+
+        /**
+         * 逐个解析请求，排队的请求到了上限就停，剩下的字节留到{@link #unparsed}
+         */
+        private void parse(ByteBuffer buffer) {
+            try {
+                while (buffer.hasRemaining() && !closing && pending.size() < MAX_PIPELINED) {
+                    if (parser.parse(buffer)) {
+                        final Exchange exchange = new Exchange(connection(parser), parser.isHead());
+                        pending.add(exchange);
+                        if (exchange.connection == CLOSE) {
+                            // 这之后的请求不处理
+                            stopReading();
+                        }
+                        route(parser.path(), exchange);
+                        parser.reset();
+                    }
+                }
+                if (buffer.hasRemaining() && !closing && buffer != unparsed) {
+                    unparsed = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+                }
+            } catch (ProtocolException e) {
+                log.debug("请求不合法：{}", e.getMessage());
+                final Exchange exchange = new Exchange(CLOSE, false);
+                exchange.response = exchange.encode(BAD_REQUEST);
+                pending.add(exchange);
+                stopReading();
+            }
+        }
+
+        private int connection(HttpRequestParser parser) {
+            if (!parser.isKeepAlive()) {
+                return CLOSE;
+            }
+            return parser.httpMinorVersion() == 0 ? KEEP_ALIVE_HTTP_1_0 : KEEP_ALIVE;
+        }
+
+        private void route(String path, Exchange exchange) {
+            if (path.equals("/")) {
+                exchange.response = exchange.encode(HELLO);
+            } else if (path.equals("/delay5s")) {
+                delay(exchange, 5000);
+            } else if (path.startsWith("/delay/")) {
+                final long millis = parseDelay(path.substring("/delay/".length()));
+                if (millis < 0) {
+                    exchange.response = exchange.encode(BAD_REQUEST);
+                } else {
+                    delay(exchange, millis);
+                }
+            } else {
+                exchange.response = exchange.encode(NOT_FOUND);
+            }
+        }
+
+        /**
+         * @return 不是合法的延时返回-1
+         */
+        private long parseDelay(String value) {
+            if (value.isEmpty() || value.length() > 5) {
+                return -1;
+            }
+            long millis = 0;
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                millis = millis * 10 + (c - '0');
+            }
+            return millis <= MAX_DELAY_MILLIS ? millis : -1;
+        }
+
+        /**
+         * 挂到worker的时间轮上，到期时在worker线程上准备好响应、把能写的写出去
+         */
+        private void delay(Exchange exchange, long millis) {
+            exchange.delay = loop.timer().schedule(() -> {
+                exchange.response = exchange.encode(HELLO);
+                try {
+                    flush();
+                } catch (IOException e) {
+                    log.debug("连接异常关闭", e);
+                    close();
+                }
+            }, millis);
+        }
+
+        /**
+         * 把pending队头准备好的响应按顺序挪到output，尽量一次写出去；写不完就等OP_WRITE
+         * <p>
+         * 排队的少了就接着解析之前留下的字节，解析出来的请求能马上响应的接着写
+         */
+        private void flush() throws IOException {
+            while (!closed) {
+                Exchange head;
+                while ((head = pending.peek()) != null && head.response != null) {
+                    pending.poll();
+                    output.add(head.response);
+                }
+                while (!output.isEmpty()) {
+                    final ByteBuffer[] batch = output.toArray(new ByteBuffer[0]);
+                    channel.write(batch);
+                    while (!output.isEmpty() && !output.peek().hasRemaining()) {
+                        output.poll();
+                    }
+                    if (!output.isEmpty()) {
+                        // 发送缓冲区满了
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                if (closing) {
+                    if (pending.isEmpty()) {
+                        close();
+                    } else {
+                        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                    }
+                    return;
+                }
+                if (unparsed == null || pending.size() >= MAX_PIPELINED) {
+                    break;
+                }
+                parse(unparsed);
+                if (!unparsed.hasRemaining()) {
+                    unparsed = null;
+                }
+            }
+            if (closed) {
+                return;
+            }
+            // 写完了，恢复读；因为排队太多暂停的读，等留下的字节都解析完了再恢复
+            key.interestOps(pending.size() < MAX_PIPELINED && unparsed == null ? SelectionKey.OP_READ : 0);
+            if (pending.isEmpty()) {
+                scheduleIdleTimeout();
+            }
+        }
+
+        private void stopReading() {
+            closing = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+
+        private void scheduleIdleTimeout() {
+            if (idleTimeout == null) {
+                idleTimeout = loop.timer().schedule(this::close, idleTimeoutMillis);
+            }
+        }
+
+        private void cancelIdleTimeout() {
+            if (idleTimeout != null) {
+                idleTimeout.cancel();
+                idleTimeout = null;
+            }
+        }
+
+        private void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cancelIdleTimeout();
+            for (Exchange exchange : pending) {
+                if (exchange.delay != null) {
+                    exchange.delay.cancel();
+                }
+            }
+            pending.clear();
+            output.clear();
+            unparsed = null;
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.debug("关闭连接失败", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.javaniodemo.nio;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class NioHttpServerTest {
+
+    private static final long IDLE_TIMEOUT = 1000;
+
+    NioHttpServer server;
+    InetSocketAddress address;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = new NioHttpServer(new InetSocketAddress("localhost", 0), 2, IDLE_TIMEOUT);
+        address = server.localAddress();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket();
+        socket.connect(address);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static String request(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    }
+
+    private static void send(Socket socket, String requests) throws IOException {
+        socket.getOutputStream().write(requests.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * 读count个响应，每个是"状态码 body"
+     */
+    private static List<String> read(Socket socket, int count) throws IOException {
+        final List<String> responses = new ArrayList<>();
+        final HttpResponseParser parser = new HttpResponseParser();
+        final InputStream in = socket.getInputStream();
+        final byte[] bytes = new byte[4096];
+        while (responses.size() < count) {
+            final int n = in.read(bytes);
+            Assertions.assertTrue(n > 0, "连接被关闭，只读到" + responses.size() + "个响应");
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, n);
+            while (buffer.hasRemaining()) {
+                if (parser.parse(buffer)) {
+                    responses.add(parser.statusCode() + " " + parser.body());
+                    parser.reset();
+                }
+            }
+        }
+        return responses;
+    }
+
+    @Test
+    public void testRoutes() throws Exception {
+        try (Socket socket = connect()) {
+            for (String[] expected : new String[][]{
+                    {"/", "200 hello"},
+                    {"/?a=1", "200 hello"},
+                    {"/delay/50", "200 hello"},
+                    {"/delay/abc", "400 bad request"},
+                    {"/delay/70000", "400 bad request"},
+                    {"/missing", "404 not found"},
+            }) {
+                send(socket, request(expected[0]));
+                // 一直是同一个连接
+                Assertions.assertEquals(List.of(expected[1]), read(socket, 1), expected[0]);
+            }
+        }
+    }
+
+    /**
+     * 一次发三个请求：同时开始处理，总耗时是最长的那个，不是加起来；响应按请求的顺序回来
+     */
+    @Test
+    public void testPipelining() throws Exception {
+        try (Socket socket = connect()) {
+            final long start = System.nanoTime();
+            send(socket, request("/delay/300") + request("/missing") + request("/delay/100"));
+            Assertions.assertEquals(List.of("200 hello", "404 not found", "200 hello"), read(socket, 3));
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assertions.assertTrue(millis >= 290 && millis < 390, "耗时" + millis);
+        }
+    }
+
+    /**
+     * 一次发很多个，超过排队上限的先不读，写完再读，一个都不能丢
+     */
+    @Test
+    public void testPipelineLimit() throws Exception {
+        final int count = NioHttpServer.MAX_PIPELINED * 50;
+        try (Socket socket = connect()) {
+            send(socket, request("/").repeat(count));
+            final List<String> responses = read(socket, count);
+            Assertions.assertEquals(Collections.nCopies(count, "200 hello"), responses);
+        }
+    }
+
+    /**
+     * 一次读进来的请求超过排队上限：超出的先不解析、不开始处理，前面的响应写出去之后再开始
+     */
+    @Test
+    public void testPipelineLimitDefersParsing() throws Exception {
+        final int count = NioHttpServer.MAX_PIPELINED + 1;
+        try (Socket socket = connect()) {
+            final long start = System.nanoTime();
+            send(socket, request("/delay/300").repeat(count));
+            Assertions.assertEquals(Collections.nCopies(count, "200 hello"), read(socket, count));
+            // 最后一个在第一批写完之后才开始延时
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assertions.assertTrue(millis >= 590 && millis < 900, "耗时" + millis);
+        }
+    }
+
+    @Test
+    public void testConnectionClose() throws Exception {
+        try (Socket socket = connect()) {
+            // close之后的请求不处理
+            send(socket, "GET / HTTP/1.1\r\nConnection: close\r\n\r\n" + request("/"));
+            Assertions.assertEquals(List.of("200 hello"), read(socket, 1));
+            Assertions.assertEquals(-1, socket.getInputStream().read());
+        }
+        try (Socket socket = connect()) {
+            send(socket, "GET / HTTP/1.0\r\n\r\n");
+            Assertions.assertEquals(List.of("200 hello"), read(socket, 1));
+            Assertions.assertEquals(-1, socket.getInputStream().read());
+        }
+        try (Socket socket = connect()) {
+            send(socket, "GET / HTTP/1.0\r\nConnection: keep-alive\r\n\r\n" + request("/"));
+            Assertions.assertEquals(List.of("200 hello", "200 hello"), read(socket, 2));
+        }
+    }
+
+    /**
+     * 1.0的keep-alive请求，响应也要带keep-alive：ab -k这种客户端没看到的话，认为连接会关，一直等着服务端关闭
+     */
+    @Test
+    public void testHttp10KeepAlive() throws Exception {
+        try (Socket socket = connect()) {
+            final String expected = "HTTP/1.1 200 OK\r\nContent-Type: text/plain;charset=UTF-8\r\nContent-Length: 5\r\n"
+                    + "Connection: keep-alive\r\n\r\nhello";
+            // 收到响应再发下一个，和ab -k一样
+            for (int i = 0; i < 2; i++) {
+                send(socket, "GET / HTTP/1.0\r\nConnection: keep-alive\r\n\r\n");
+                final byte[] bytes = socket.getInputStream().readNBytes(expected.length());
+                Assertions.assertEquals(expected, new String(bytes, StandardCharsets.US_ASCII));
+            }
+        }
+    }
+
+    /**
+     * HEAD只有header，后面紧跟着下一个响应
+     */
+    @Test
+    public void testHead() throws Exception {
+        try (Socket socket = connect()) {
+            send(socket, "HEAD / HTTP/1.1\r\n\r\n" + request("/"));
+            final String headers = "HTTP/1.1 200 OK\r\nContent-Type: text/plain;charset=UTF-8\r\nContent-Length: 5\r\n\r\n";
+            final String expected = headers + headers + "hello";
+            final byte[] bytes = socket.getInputStream().readNBytes(expected.length());
+            Assertions.assertEquals(expected, new String(bytes, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        try (Socket socket = connect()) {
+            send(socket, "hello\r\n\r\n");
+            Assertions.assertEquals(List.of("400 bad request"), read(socket, 1));
+            Assertions.assertEquals(-1, socket.getInputStream().read());
+        }
+        // 两个Content-Length，不能猜哪个是对的
+        try (Socket socket = connect()) {
+            send(socket, "POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 5\r\n\r\nhello" + request("/"));
+            Assertions.assertEquals(List.of("400 bad request"), read(socket, 1));
+            Assertions.assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void testIdleTimeout() throws Exception {
+        try (Socket socket = connect()) {
+            send(socket, request("/"));
+            read(socket, 1);
+            final long start = System.nanoTime();
+            Assertions.assertEquals(-1, socket.getInputStream().read());
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assertions.assertTrue(millis >= IDLE_TIMEOUT - 50 && millis < IDLE_TIMEOUT + 500, "耗时" + millis);
+        }
+    }
+
+    /**
+     * 1000个连接同时/delay/500：延时在worker的时间轮上，不占线程，所有请求差不多同时完成
+     */
+    @Test
+    public void testConcurrentDelays() throws Exception {
+        final int count = 1000;
+        final NioEventLoopGroup group = new NioEventLoopGroup(1, NioEventLoopGroup.Chooser.ROUND_ROBIN,
+                () -> new NioConnectionPool(count, count, 30_000));
+        try {
+            final NioHttpClient client = new NioHttpClient(group, address);
+            final CountDownLatch latch = new CountDownLatch(count);
+            final List<String> bodies = Collections.synchronizedList(new ArrayList<>());
+            final long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                client.get("/delay/500", (body, e) -> {
+                    bodies.add(e == null ? body : e.toString());
+                    latch.countDown();
+                });
+            }
+            Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+            final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assertions.assertEquals(Collections.nCopies(count, "hello"), bodies);
+            Assertions.assertTrue(millis < 2000, "耗时" + millis);
+        } finally {
+            group.shutdown();
+        }
+    }
+}
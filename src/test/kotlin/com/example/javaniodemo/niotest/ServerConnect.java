@@ -1,108 +1,33 @@
 package com.example.javaniodemo.niotest;
 
 
-import java.io.IOException;
+import com.example.javaniodemo.nio.NioHttpServer;
+
 import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.util.Iterator;
 
 /**
- *
- * https://blog.csdn.net/u011381576/article/details/79876754
+ * 原生nio的http服务端入口，实现见{@link NioHttpServer}
+ * <p>
+ * 最早是照着 https://blog.csdn.net/u011381576/article/details/79876754 写的单线程echo：一个selector，按char打印收到的字节；
+ * 现在是boss + N个worker的http/1.1服务端，支持keep-alive和流水线，接口和JavaNioDemoApplication一样（/、/delay5s、/delay/{ms}），
+ * 端口也都是8080，分别启动，用同样的客户端压测对比
+ * <p>
+ * 参数：[端口] [worker数]，worker数默认是核数
  */
 public class ServerConnect {
-    private static final int BUF_SIZE = 1024;
     private static final int PORT = 8080;
-    private static final int TIMEOUT = 3000;
-
-    public static void main(String[] args) {
-        selector();
-    }
+    private static final long IDLE_TIMEOUT = 60_000;
 
-    public static void handleAccept(SelectionKey key) throws IOException {
-        ServerSocketChannel ssChannel = (ServerSocketChannel) key.channel();
-        SocketChannel sc = ssChannel.accept();
-        sc.configureBlocking(false);
-        sc.register(key.selector(), SelectionKey.OP_READ, ByteBuffer.allocateDirect(BUF_SIZE));
-    }
-
-    public static void handleRead(SelectionKey key) throws IOException {
-        SocketChannel sc = (SocketChannel) key.channel();
-        ByteBuffer buf = (ByteBuffer) key.attachment();
-        long bytesRead = sc.read(buf);
-        while (bytesRead > 0) {
-            buf.flip();
-            while (buf.hasRemaining()) {
-                System.out.print((char) buf.get());
-            }
-            System.out.println();
-            buf.clear();
-            bytesRead = sc.read(buf);
-        }
-        if (bytesRead == -1) {
-            sc.close();
-        }
-    }
-
-    public static void handleWrite(SelectionKey key) throws IOException {
-        ByteBuffer buf = (ByteBuffer) key.attachment();
-        buf.flip();
-        SocketChannel sc = (SocketChannel) key.channel();
-        while (buf.hasRemaining()) {
-            sc.write(buf);
-        }
-        buf.compact();
-    }
-
-    public static void selector() {
-        Selector selector = null;
-        ServerSocketChannel ssc = null;
-        try {
-            selector = Selector.open();
-            ssc = ServerSocketChannel.open();
-            ssc.socket().bind(new InetSocketAddress(PORT));
-            ssc.configureBlocking(false);
-            ssc.register(selector, SelectionKey.OP_ACCEPT);
-            while (true) {
-                if (selector.select(TIMEOUT) == 0) {
-                    System.out.println("==");
-                    continue;
-                }
-                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
-                while (iter.hasNext()) {
-                    SelectionKey key = iter.next();
-                    if (key.isAcceptable()) {
-                        handleAccept(key);
-                    }
-                    if (key.isReadable()) {
-                        handleRead(key);
-                    }
-                    if (key.isWritable() && key.isValid()) {
-                        handleWrite(key);
-                    }
-                    if (key.isConnectable()) {
-                        System.out.println("isConnectable = true");
-                    }
-                    iter.remove();
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
+    public static void main(String[] args) throws Exception {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : PORT;
+        final int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final NioHttpServer server = new NioHttpServer(new InetSocketAddress(port), workers, IDLE_TIMEOUT);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-                if (selector != null) {
-                    selector.close();
-                }
-                if (ssc != null) {
-                    ssc.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+                server.shutdown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        }
+        }));
     }
-}
\ No newline at end of file
+}